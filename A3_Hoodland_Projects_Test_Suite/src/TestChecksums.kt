@@ -0,0 +1,81 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.testsuite
+
+import hoodland.opensource.koarsegrind.Test
+import hoodland.opensource.toolbox.*
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.zip.CRC32
+
+class TestChecksumKnownValues : Test(
+    "Checksums - Known Values",
+    "Each ChecksumAlgorithm should produce the published check value for the ASCII string '123456789'.",
+    "Toolbox|Checksums",
+    "TB-CS-01"
+) {
+    override fun performTest() {
+        val file = File("$artifactsDirectory${File.separatorChar}check.txt")
+        file.writeText("123456789")
+
+        assert.shouldBeEqual(file.checksumValue(ChecksumAlgorithm.CRC32), 0xCBF43926L, "CRC32 check value")
+        assert.shouldBeEqual(file.checksumValue(ChecksumAlgorithm.CRC32C), 0xE3069283L, "CRC32C check value")
+        assert.shouldBeEqual(file.checksumValue(ChecksumAlgorithm.XXHASH64), 0x8CB841DB40E6AE83UL.toLong(), "xxHash64 check value")
+        assert.shouldBeEqual(file.checksumValue(ChecksumAlgorithm.SHA256), 0x15E2B0D3C33891EBL, "First 64 bits of the SHA-256 digest")
+        assert.shouldBeEqual(file.crc32ChecksumValue, 0xCBF43926L, "crc32ChecksumValue should still be plain CRC32")
+    }
+}
+
+class TestChecksumLargeFile : Test(
+    "Checksums - Multiple Buffers",
+    "A file several times larger than the read buffer should get the same checksum as its bytes hashed in memory, and xxHash64 should not care how its input is split up.",
+    "Toolbox|Checksums",
+    "TB-CS-02"
+) {
+    override fun performTest() {
+        val content = ByteArray((5 shl 20) + 13)
+        Random(7).nextBytes(content)
+        val file = File("$artifactsDirectory${File.separatorChar}large.bin")
+        file.writeBytes(content)
+
+        val inMemory = CRC32()
+        inMemory.update(content)
+        assert.shouldBeEqual(file.crc32ChecksumValue, inMemory.value, "CRC32 of the file should match CRC32 of its content")
+
+        val wholeHash = XXHash64()
+        wholeHash.update(content, 0, content.size)
+
+        val piecewiseHash = XXHash64()
+        var position = 0
+        var pieceSize = 1
+        while (position < content.size) {
+            val length = minOf(pieceSize, content.size - position)
+            piecewiseHash.update(ByteBuffer.wrap(content, position, length))
+            position += length
+            pieceSize = (pieceSize * 3 + 1) % 4099
+        }
+
+        assert.shouldBeEqual(piecewiseHash.value, wholeHash.value, "xxHash64 fed in uneven pieces should match xxHash64 fed all at once")
+        assert.shouldBeEqual(file.checksumValue(ChecksumAlgorithm.XXHASH64), wholeHash.value, "xxHash64 of the file should match xxHash64 of its content")
+    }
+}
@@ -0,0 +1,98 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.boolog.benchmark
+
+import hoodland.opensource.boolog.Boolog
+import hoodland.opensource.boolog.THEME_NONE
+import hoodland.opensource.toolbox.benchmark.*
+import hoodland.opensource.toolbox.getCurrentWorkingDirectory
+import java.io.File
+import java.io.PrintWriter
+import java.util.concurrent.CountDownLatch
+
+// Measures how many lines per second a Boolog takes when 1 to 32 threads log to it at once, three ways: every
+// thread calling info() on one shared Boolog, every thread logging to its own threadSection(), and every thread
+// calling info() on one Boolog that's writing asynchronously. The HTML goes to a temporary file; there's no
+// plain-text stream, since the console would be what's measured. Time includes concluding, so embedding the
+// thread sections is counted against them.
+// Arguments (all optional): <lines per thread> <passes> <CSV output path>
+private val THREAD_COUNTS = intArrayOf(1, 2, 4, 8, 16, 32)
+
+private enum class Mode(val description: String) {
+    SHARED("shared Boolog"),
+    THREAD_SECTIONS("thread sections"),
+    ASYNCHRONOUS("asynchronous")
+}
+
+fun main(args: Array<String>) {
+    val linesPerThread = args.getOrNull(0)?.toIntOrNull() ?: 20000
+    val passes = args.getOrNull(1)?.toIntOrNull() ?: 3
+    val csvPath = args.getOrNull(2) ?: "${getCurrentWorkingDirectory()}${File.separator}ConcurrentBoologBenchmark.csv"
+
+    val htmlFile = File.createTempFile("ConcurrentBoologBenchmark", ".html")
+    val table = BenchmarkTable("Mode", "threads", "lines", "ms", "lines/s", "scaling")
+    try {
+        for (mode in Mode.values()) {
+            var singleThreadRate = 0.0
+            for (threads in THREAD_COUNTS) {
+                val nanoseconds = median(measuredPasses(passes) { runPass(htmlFile, mode, threads, linesPerThread) }) { it }
+                val lines = threads.toLong() * linesPerThread
+                val rate = lines / (nanoseconds / 1_000_000_000.0)
+                if (threads == 1) singleThreadRate = rate
+                table.add(
+                        mode.description,
+                        threads.toString(),
+                        lines.toString(),
+                        "%.1f".format(nanoseconds / 1_000_000.0),
+                        "%.0f".format(rate),
+                        "%.2f".format(rate / singleThreadRate))
+            }
+        }
+    } finally {
+        htmlFile.delete()
+    }
+
+    table.save(csvPath)
+}
+
+private fun runPass(htmlFile: File, mode: Mode, threads: Int, linesPerThread: Int): Long {
+    val log = Boolog("Concurrent Boolog Benchmark", null, PrintWriter(htmlFile), true, true, THEME_NONE).streamHTML()
+    if (mode == Mode.ASYNCHRONOUS) log.writeAsynchronously()
+
+    val start = CountDownLatch(1)
+    val workers = (1..threads).map { number ->
+        Thread({
+            start.await()
+            val target = if (mode == Mode.THREAD_SECTIONS) log.threadSection() else log
+            for (line in 1..linesPerThread) {
+                target.info("Line $line from worker $number")
+            }
+        }, "Worker $number")
+    }
+
+    workers.forEach { it.start() }
+    val began = System.nanoTime()
+    start.countDown()
+    workers.forEach { it.join() }
+    log.conclude()
+    return System.nanoTime() - began
+}
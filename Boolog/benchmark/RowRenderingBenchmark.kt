@@ -0,0 +1,72 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.boolog.benchmark
+
+import hoodland.opensource.boolog.Boolog
+import hoodland.opensource.boolog.THEME_NONE
+import hoodland.opensource.boolog.escapeHTML
+import hoodland.opensource.toolbox.benchmark.*
+import hoodland.opensource.toolbox.getCurrentWorkingDirectory
+import java.io.File
+import java.io.PrintWriter
+import java.io.Writer
+
+// Measures nanoseconds and bytes allocated per log line for whole lines logged to a streaming Boolog whose HTML and
+// plain text are both thrown away: plain info() and debug() lines, a message with markup in it escaped by the
+// caller with escapeHTML(), and the same message escaped by a Boolog that's been told to escapeMessages(). Once
+// the buffers have grown to fit, a line shouldn't allocate anything. Allocation is what the JVM counts for the
+// benchmark's own thread.
+// Arguments (all optional): <lines per pass> <passes> <CSV output path>
+private const val PLAIN_MESSAGE = "Copied 1,024 bytes from the source folder"
+private const val MARKUP_MESSAGE = "Expected <List> & got \"null\" for 'items'"
+
+fun main(args: Array<String>) {
+    val lines = args.getOrNull(0)?.toIntOrNull() ?: 1_000_000
+    val passes = args.getOrNull(1)?.toIntOrNull() ?: 5
+    val csvPath = args.getOrNull(2) ?: "${getCurrentWorkingDirectory()}${File.separator}RowRenderingBenchmark.csv"
+
+    val log = discardingBoolog()
+    val escapingLog = discardingBoolog().escapeMessages()
+    val cases = linkedMapOf<String, () -> Unit>(
+            "info()" to { log.info(PLAIN_MESSAGE) },
+            "debug()" to { log.debug(PLAIN_MESSAGE) },
+            "info(escapeHTML())" to { log.info(escapeHTML(MARKUP_MESSAGE)) },
+            "info() with escapeMessages()" to { escapingLog.info(MARKUP_MESSAGE) })
+
+    val table = BenchmarkTable("Case", "lines", "ns/line", "bytes/line")
+    for ((case, logLine) in cases) {
+        val result = median(measuredPasses(passes) { measure { repeat(lines) { logLine() } } }) { it.nanoseconds }
+        table.add(
+                case,
+                lines.toString(),
+                "%.1f".format(result.nanoseconds.toDouble() / lines),
+                "%.2f".format(result.bytesAllocated.toDouble() / lines))
+    }
+
+    log.conclude()
+    escapingLog.conclude()
+    table.save(csvPath)
+}
+
+private fun discardingBoolog(): Boolog {
+    return Boolog("Row Rendering Benchmark", PrintWriter(Writer.nullWriter()), PrintWriter(Writer.nullWriter()), true, true, THEME_NONE).streamHTML()
+}
@@ -0,0 +1,85 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.boolog.benchmark
+
+import hoodland.opensource.boolog.Boolog
+import hoodland.opensource.boolog.THEME_NONE
+import hoodland.opensource.boolog.TimestampCache
+import hoodland.opensource.toolbox.benchmark.*
+import hoodland.opensource.toolbox.getCurrentWorkingDirectory
+import java.io.File
+import java.io.PrintWriter
+import java.io.Writer
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
+
+// Measures nanoseconds and bytes allocated per log line for rendering a line's time stamps: once the way Boolog
+// used to, with LocalDateTime.now() and a DateTimeFormatter for the HTML date, the HTML time and the plain-text
+// stamp, and once with a TimestampCache. A third case logs whole lines with info() to a Boolog whose HTML and
+// plain text are both thrown away, to show what's left of a line's cost around the time stamps. Allocation is
+// what the JVM counts for the benchmark's own thread.
+// Arguments (all optional): <lines per pass> <passes> <CSV output path>
+private val PLAINTEXT_DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd\tHH:mm:ss.SSS")
+private val HTML_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd")
+private val HTML_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+
+fun main(args: Array<String>) {
+    val lines = args.getOrNull(0)?.toIntOrNull() ?: 1_000_000
+    val passes = args.getOrNull(1)?.toIntOrNull() ?: 5
+    val csvPath = args.getOrNull(2) ?: "${getCurrentWorkingDirectory()}${File.separator}TimestampBenchmark.csv"
+
+    val target = StringBuilder()
+    val timestamps = TimestampCache()
+    val cases = linkedMapOf<String, () -> Unit>(
+            "DateTimeFormatter" to {
+                target.setLength(0)
+                val timestamp = LocalDateTime.now()
+                target.append(timestamp.format(HTML_DATE_FORMATTER))
+                target.append(timestamp.format(HTML_TIME_FORMATTER))
+                target.append(timestamp.format(PLAINTEXT_DATETIME_FORMATTER))
+            },
+            "TimestampCache" to {
+                target.setLength(0)
+                val timestamp = timestamps.now()
+                timestamps.appendDate(target, timestamp)
+                timestamps.appendTime(target, timestamp)
+                timestamps.appendDate(target, timestamp)
+                target.append('\t')
+                timestamps.appendTime(target, timestamp)
+            })
+
+    val log = Boolog("Timestamp Benchmark", PrintWriter(Writer.nullWriter()), PrintWriter(Writer.nullWriter()), true, true, THEME_NONE).streamHTML()
+    cases["Boolog.info()"] = { log.info("A line of the log") }
+
+    val table = BenchmarkTable("Case", "lines", "ns/line", "bytes/line")
+    for ((case, logLine) in cases) {
+        val result = median(measuredPasses(passes) { measure { repeat(lines) { logLine() } } }) { it.nanoseconds }
+        table.add(
+                case,
+                lines.toString(),
+                "%.1f".format(result.nanoseconds.toDouble() / lines),
+                "%.1f".format(result.bytesAllocated.toDouble() / lines))
+    }
+
+    log.conclude()
+    table.save(csvPath)
+}
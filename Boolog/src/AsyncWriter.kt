@@ -0,0 +1,282 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.boolog
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.locks.LockSupport
+
+const val DEFAULT_ASYNC_CAPACITY = 8192
+
+// Once the queue is this full, OverflowPolicy.SAMPLE only keeps one entry in SAMPLE_INTERVAL.
+private const val SAMPLE_THRESHOLD_PERCENT = 75
+private const val SAMPLE_INTERVAL = 8
+private const val IDLE_WAIT_NANOSECONDS = 100_000_000L
+private const val FULL_WAIT_NANOSECONDS = 50_000L
+
+/**
+ * OverflowPolicy decides what an asynchronous Boolog does when its queue is full.
+ */
+enum class OverflowPolicy {
+    // The caller waits until there's room. Nothing is lost.
+    BLOCK,
+
+    // The entry is dropped.
+    DROP,
+
+    // Once the queue is three quarters full, only one entry in eight is kept, so the log still shows what was
+    // happening. Whatever doesn't fit after that is dropped.
+    SAMPLE
+}
+
+/**
+ * LogEvent is what a caller leaves in the queue: just the parts of the log entry, so none of the formatting is done
+ * on the caller's thread.
+ */
+internal class LogEvent(val kind: Int, val message: String, val emoji: String, val localMilliseconds: Long) {
+    companion object {
+        const val HTML = 1
+        const val PLAIN_TEXT = 2
+        const val BOTH = HTML or PLAIN_TEXT
+
+        // The HTML is highlighted, as by debug() and error().
+        const val HIGHLIGHTED = 4
+
+        // The message is escaped as it's written to the HTML, as by info(), debug() and error() once escapeMessages() is called.
+        const val ESCAPED = 8
+    }
+}
+
+/**
+ * AsyncBoologWriter is the queue and writer thread behind Boolog.writeAsynchronously(). Callers add entries to a
+ * bounded ring buffer without taking a lock, and the writer thread formats them, writes them in batches and flushes
+ * once per batch. Its properties show how the queue is doing.
+ */
+class AsyncBoologWriter internal constructor(
+        name: String,
+        requestedCapacity: Int,
+        val overflowPolicy: OverflowPolicy,
+        private val timestamps: TimestampCache,
+        private val write: (LogEvent) -> Unit,
+        private val endBatch: () -> Unit) {
+    private val ring = EventRing(requestedCapacity)
+    private val thread = Thread({ writeUntilStopped() }, "Boolog writer: $name")
+    private val droppedCount = AtomicLong()
+
+    // Callers that are part way through queueing an entry. The writer doesn't finish until they're done.
+    private val producers = AtomicInteger()
+
+    private var sampleCounter = 0
+
+    @Volatile
+    private var isClosed = false
+
+    @Volatile
+    private var writerIsWaiting = false
+
+    @Volatile
+    private var writtenCount = 0L
+
+    @Volatile
+    private var deepest = 0
+
+    // The number of entries the queue can hold: the requested capacity rounded up to a power of two.
+    val capacity: Int
+        get() = ring.capacity
+
+    // Entries waiting to be written right now.
+    val queueDepth: Int
+        get() = ring.depth
+
+    // The most entries that have been waiting at once.
+    val highWaterMark: Int
+        get() = deepest
+
+    val eventsWritten: Long
+        get() = writtenCount
+
+    // Entries lost to the overflow policy, or queued after the writer was stopped.
+    val eventsDropped: Long
+        get() = droppedCount.get()
+
+    init {
+        thread.isDaemon = true
+        thread.start()
+    }
+
+    internal fun enqueue(event: LogEvent) {
+        producers.incrementAndGet()
+        try {
+            if (isClosed) {
+                droppedCount.incrementAndGet()
+                return
+            }
+
+            when (overflowPolicy) {
+                OverflowPolicy.BLOCK -> {
+                    while (!ring.offer(event)) {
+                        // If the writer thread has died, there will never be room.
+                        if (!thread.isAlive) {
+                            droppedCount.incrementAndGet()
+                            return
+                        }
+
+                        wakeWriter()
+                        LockSupport.parkNanos(FULL_WAIT_NANOSECONDS)
+                    }
+                }
+                OverflowPolicy.DROP -> {
+                    if (!ring.offer(event)) {
+                        droppedCount.incrementAndGet()
+                        return
+                    }
+                }
+                OverflowPolicy.SAMPLE -> {
+                    // The counter is only a rough guide, so it doesn't matter that threads race on it.
+                    val sampledOut = (ring.depth * 100 >= ring.capacity * SAMPLE_THRESHOLD_PERCENT) && ((sampleCounter++ % SAMPLE_INTERVAL) != 0)
+                    if (sampledOut || !ring.offer(event)) {
+                        droppedCount.incrementAndGet()
+                        return
+                    }
+                }
+            }
+
+            if (writerIsWaiting) wakeWriter()
+        } finally {
+            producers.decrementAndGet()
+        }
+    }
+
+    /**
+     * stop: Closes the queue, writes everything that's still in it, then ends the writer thread. Anything queued
+     * after this is dropped and counted, rather than waiting for a writer that's gone.
+     */
+    internal fun stop() {
+        isClosed = true
+        wakeWriter()
+        if (Thread.currentThread() != thread) thread.join()
+    }
+
+    private fun wakeWriter() {
+        LockSupport.unpark(thread)
+    }
+
+    private fun writeUntilStopped() {
+        var droppedSoFar = 0L
+        while (true) {
+            val depth = ring.depth
+            if (depth > deepest) deepest = depth
+
+            var event = ring.poll()
+            if (event == null) {
+                if (isClosed) {
+                    // Anyone who started queueing before the close is waited for. Once none are left, whatever
+                    // they queued is already in the ring.
+                    if ((producers.get() == 0) && (ring.depth == 0)) break
+                    LockSupport.parkNanos(FULL_WAIT_NANOSECONDS)
+                    continue
+                }
+
+                // Check again after saying so, in case something was queued in between.
+                writerIsWaiting = true
+                if (ring.depth == 0) LockSupport.parkNanos(IDLE_WAIT_NANOSECONDS)
+                writerIsWaiting = false
+                endBatch()
+                continue
+            }
+
+            var written = 0L
+            while (event != null) {
+                write(event)
+                written++
+                event = ring.poll()
+            }
+
+            droppedSoFar = reportDropped(droppedSoFar)
+            writtenCount += written
+            endBatch()
+        }
+
+        reportDropped(droppedSoFar)
+        endBatch()
+    }
+
+    private fun reportDropped(droppedSoFar: Long): Long {
+        val dropped = droppedCount.get()
+        if (dropped > droppedSoFar) {
+            write(LogEvent(LogEvent.BOTH or LogEvent.HIGHLIGHTED, "${dropped - droppedSoFar} log entries were dropped because the queue was full or had been closed.", EMOJI_ERROR, timestamps.now()))
+        }
+
+        return dropped
+    }
+}
+
+/**
+ * EventRing is a bounded queue for any number of producers and a single consumer. Each slot has a sequence number
+ * that says whether it's ready to be filled or ready to be read, so a producer only has to win one compare-and-set
+ * to claim a slot and there are no locks. (This is Dmitry Vyukov's bounded queue, with only one consumer.)
+ */
+internal class EventRing(requestedCapacity: Int) {
+    val capacity = Integer.highestOneBit(maxOf(requestedCapacity, 2) * 2 - 1)
+    private val mask = capacity - 1L
+    private val events = arrayOfNulls<LogEvent>(capacity)
+    private val sequences = AtomicLongArray(capacity)
+    private val tail = AtomicLong()
+
+    @Volatile
+    private var head = 0L
+
+    init {
+        for (index in 0 until capacity) sequences.set(index, index.toLong())
+    }
+
+    val depth: Int
+        get() = maxOf(tail.get() - head, 0L).toInt()
+
+    fun offer(event: LogEvent): Boolean {
+        while (true) {
+            val position = tail.get()
+            val index = (position and mask).toInt()
+            val difference = sequences.get(index) - position
+            if (difference < 0) return false
+            if ((difference == 0L) && tail.compareAndSet(position, position + 1)) {
+                events[index] = event
+                sequences.set(index, position + 1)
+                return true
+            }
+        }
+    }
+
+    // Only ever called from the writer thread.
+    fun poll(): LogEvent? {
+        val position = head
+        val index = (position and mask).toInt()
+        if (sequences.get(index) != position + 1) return null
+
+        val result = events[index]
+        events[index] = null
+        sequences.set(index, position + capacity)
+        head = position + 1
+        return result
+    }
+}
@@ -23,13 +23,15 @@ package hoodland.opensource.boolog
 
 import java.io.PrintWriter
 import java.time.LocalDateTime
-import java.time.format.DateTimeFormatter
 import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
 
 private const val STARTING_CONTENT = "<table class=\"left_justified\">\r\n"
-private val PLAINTEXT_DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd\tHH:mm:ss.SSS")
-private val HTML_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd")
-private val HTML_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+private const val BLANK_PLAINTEXT_DATETIME = "                        "
+private const val STREAMING_BUFFER_SIZE = 1 shl 16
+private const val COPY_BUFFER_SIZE = 1 shl 13
+private val LINE_SEPARATOR = System.lineSeparator()
+private const val STREAMING_FLUSH_NANOSECONDS = 1_000_000_000L
 
 internal fun defaultHeader(title: String): String {
     return "<h1><img src=\"data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAEEAAABBCAYAAACO98lFAAAABGdBTUEAALGPC/xhBQAAAAFzUkdCAdnJLH8AAAAgY0hSTQAAeiYAAICEAAD6AAAAgOgAAHUwAADqYAAAOpgAABdwnLpRPAAAAAZiS0dEAAAAAAAA+UO7fwAAAAlwSFlzAAAXEgAAFxIBZ5/SUgAAAAd0SU1FB+kDBwQ3FkQyHzoAAA80SURBVHja1Zt5fBRVtse/tzvpJIAEQRHFwXFDVBjFQRQFB+fhNsgTP+P49CkgiiIjggZXPqiDyDKAKDIoIAHDPjxERJR9CwgEBGQfCYQlkI0sZOm1qvu8P7o6Vjed9GLQcD6f++kUdavq3l+d+zvn/k6hOP9mBToDNwC/B654a0jaNSkpKa1u79ixeXJKstbkkkudaHDoyAH7lLc/3rHpxM4vgfVAMRe4dQbm7Ni2rVLisJyjxzzAfOCyC3HyNwObpI4sa8u2AuDeCwmA1zM3ZTqljs0nIkC/CwGAcWeLi+R8mdPh9AA96zMA78mvYP8cN85hkGu9s3sL8k/55FcyIL0+grA1ysFXt0PHjsQNQmFpiQ+4rj4BcGtO9pGIXnDiVF4QCEBEoKZOn14boEPqEwgZsXpBbUBEA5TRb1l9AcA6uE/fkroCYdyEj885f6qwpKb7ueoLCD1iILOIIIQ7763hfosWLhagcX0A4cNoAJgwcWLYCR4+djwiCBGA7VgfQNhyPvkgChDurquJWOK87rpjOTl3xvvQFwb0Dzp2+rwxXX809zRA5W/tBW/EmODU+obP2l0xecGz/QfUC2JcG0emFynsVbfBg16NdK81dTmZhHiuuf+eWzvFepF/7JHP55eUcXmziyPdbt1v7QUdqlya/FZWUFkpwG11OaF4iPHahkk/O5AP8AK68StR3mRN5maUUjE/vMVFFx0Fdv3WnvBZqODhFRHdaIHjWMgyRm6p831DPJxwq/lAAZrp2Gcoq7VZqAcopSJyhtHvB+Aj4/Am4AHgob+/OawpXp3V/8o4ke3K/wb4Cig/n55wyuwFuoh4TM3pE3FH8IZYEyMRkQK7LsBcYMPEaXNcBVU189JLae85gBHnC4BLZsycGfRAr4g4Tc3lE9HiyCLPkwDzf0BSRA+LNTKIyI7AgddwfxF/U4BS4FP+JZEQ5XKIJoTGa0qpb4HHAUddRYcbQhFUBhhe9XNTvyAfD7WKKPqUSK35R3egT10SY6PQ0Ogz3r6SYGB0wBblTXceyK7RW24HdphD61fzKDmTj+aswu6uov8b4/ihwEGzy1Jqe8SgtLubd/SmtqZKv4SkZk35dP4MAUYD2bEuh/4iMuWc5QBopuWgjAiRGOVyCF0KSimWfnI9iQ3aQcIVWBIEp7OCns/PRqQKaGj01CjYv50VlZfxTKfwsqMG2NQ9iGSGG8d+4A+xeuc/AqSjiz8KOEXEYbQAOVYZvzUR5O5DhwWQb9dlnnNu8crN8hLIy83Cb8FHp/UOoWW3fD33M/lkxaFzCja6iGRViKxdsrA28nwwVhBGmR+iGUC4jIlXiYjdAMQlkaNEOHtr2EvVE5742l+NyFEUFFmCzZ+i5e7PEkBuGv61vLP0gJSKyPQ9ZdLhgacjRZAJsYLQK5InBAAJAOGJc7dpbuu/HSeiH5azxduiDqdLM2ZJaW5+xH5D0kZuiZXED5nDisVY+75Ak58zRouJJMU4H43d2bXrOf92zXWNObBvJfv2fhO9ANq7Fxdf2SJiv9s7tv19rCAcGDVuvJ/MTJOzBpoCu9uDNeS8HsPGauv69edGj+39ydryMuvXjQxDbpejVDuUUuzcmYNSCqX6GL9dUWowSilatBmKUorFSzYGXd+wUUpTFUfo3iUi7TF5gBgTVcDUT6dTkF/A+yOGVWdigZBpMbVID1ZKFQBPAc6QU+kicmPgwO4GtxvcHi9r1h2k1+PtYprMmLHT9saTv4wx84LH4Aa38bcmImMmTZFBLw8J2lNoRtNNffXauSFsgmOjR05dptZd7n81M55d5OYih/5m8wYJWE1rXjNxQNrA/sxbsAibUnhFzlkOyuQJEsYrBr076SQwK9zDH+t+eStM1+YWw7CPs3D6LNj1i1h+chusO83I8R5SbMdZv6cvD3Voz//2TCU1zPZ206qP9scrxOw2R2qthrd9+HSBALJ4xepqvUE3oobZc8J4wdgant3mp737xGs89x/9kKMTETmOiNTecrciYx9HFn7zdZ3pE203bN9tN98s3LLQjcGmDR0mgHz/w/5qoDSTCGO2cv/AatIw3/E4i8WjOUUXkbFD20nxrch6kD0gu0C2g3wPsgBkB8jhvyDZ3ZDpIJKPDDeF2FNFIkBbRfw2MN+lT2qRZA0SVAghSnObMjWDgS8+w66fjtO29VXVGy1ziHrgwV7lq1bOuTREq8EIQCcdZ7Kv8CU1wZrUmASbjbIqWLDsCKX5J7EeWUfnu5phLz2De/9oWrcER5F/MLaLYUce6N2yGNCrY4B894SKRPHYsBPldl9oqqqFtNAlMH/J8qBkaNOOPXKitCrgnitqeNZ9Bzd+IiUnt0hFcbY4HcW1EmuUidmT8egJ4ax7lzvumpO57fsmhMhsWohooUK23wpwA4sWLaWsrIx1m7aybPZUxyPPPX/opyLo1qkdjS5u5RkzYHk+TG31wTOpHfoNmYk1tSVJjS7F1rA5ydd+wdxJj7DvSAE9H7oNpxtSUy1oOhzMzqPNNS3IPV1I9vEjDH2+S/X4tu0+Xt7ptqsvD4TgOwyt7hXgdaAv0B1oEgMQLwKyNutHCSXMAGmaN1iukDDpq4Efwtn7Q3tLQfYKKS/aI5kblgopGQKz5LURu+WpV7fJDwdFPpicI8cKw7z5O2eYvWCRmelv6N3r+XbLVq271S7yjojMEJFlpW4pHjf504VAmyhA+AIod1SVcmOn9hw8VYjFlDH6TAmSJSDCmKR6LYaM8rEPMjhyYAtup517uv43OE8DOYx/ZyVzM/PocNN8XA47V182HaXGodTLZG53A/A/twRpr/+uSV5rBnwgIi8E+KpSw9nYpnoAayOMb76IPAEwZe5sBjzdm10/5dCu9dVBZBlueQSAsZj2HbXZA0oxIWs+s2d/S+MW19OgyaUkW5uSf8ZBhW6ltEJj1sdH8H8Z3Ay4FliNx7eHRGXj0acGZC+ZN+XmMOQbTEJ7j58sD7jOnH8vOQY0jUJwCdrgjv3kMwHk0xkZ4jItA7dpy+00jrUo6xWVxk7zxL4VUnBsn5QU5krp2RJxOFxi93jF6RVx+4KXWn7+GZk07QvzUng42nV+V7l/nIEL50UqDs1YMM9tBiHAB9uPHKuOBKu37KqRF6Iq2jw6TfZsnCqHdn8nC+bMlnf7IYd2DpapE5rJ6m/elnXLR8qBXTNkxXfvy+OP3iMrN24Xj88rPq8/lsxbuKQ8BuUvuARfookA7SP032gGIaAzmN/65PSZcm27+4JCZK+0N+SUOzIAN4/eIH1BdmWmy96t38mgvyEiWfLjWqQbyIhXkGfvR1bM89+3suAx0YqflVUbt0uVyyluXZOuD/ddGmv4S/rnlM+cJm8YFaF/uhge4DIBEGgVhjuHii52EUlfvEbGz/pSgK3A5J7D588wZPJqsNbMflA2LxslW9Z+ISNee03E8a6I5ItIgaE+HRORo8bfp0XkuIgcljHvD5WyynKxu+wCvBRPHlAdV7iI0giuNDIAQqWRAp81tXIDiCrj74AWaU566DBkj3GvvulPICsnIuszkMxFPWTzN4Nl88oPZdOKmfJ0J0TkpIisEpFpInJGdq1FDuzoKJWFaca5oyLyqcxa+J2cLiyQt94b7QzHbdGIKmNLja9pHBVyMdC2lr55uikKhFN+tTCUbA5RmV+ObAe0AIZf2R6SG4OtQQ8ksSW6SsGtO+nyYF8eeQJydrVi4Wf3o9QLKHUp3f8Lvl6wHafjFIe2twLnJKZOWs4df7weTatizPC3lwOlcVWgBr3+9n8mjh11g5FvZwDP1ND1JV3kX5oR8twmX1bGntkcEgOyvC1EnldKbZ75DJ1bdoLkZjdjTfkDPutlaL5EPF4LHl8jdJ8NrycJklOx+pLZsTOb0R98DuTSrxdMnw3pc+ZyU5vrSbKB1evllvad+oTboqsYlkRfjIklK/UnIDNMv2kukec1U03CZyQJ1TmCqS4RKNUlhVSBlFJ89SakXg+D+8G+CIPr/WI3Ot/WFVujVBo2bERiQgIJicnYEizYbEkk2Sx06viXCqAlUBVvBWpPNVP6f0YAfwr9eGNw2qDeoVWoQJ0yaO/g9T9ZN+0jQgei2+D+frD6qzV06NyFd9/8nAnpNXOa3Qmn88Cj+XDYXXg0jWuvTqWiElzOKtauz0vy6rL1zJmSg1dc3vTsvfdemQeMB+zRkuM95lDl8keKV0xAdgQ2OQ1CLBOREhE5IyJFPpEir0iRSyTPK5LnFinQ/P9WYhClWZafuumkjAZZ9N650vvqFdl1XLUe+EksBdlNLw5JKzB7Q65d+wg4BuSfKHdkuUU6B0TXwEZA18Crga6DrkDpYFEhhdwQIi0pKyYBcIc47cMdQakzdVqxnjOnc+dYt9KTReTvodtln6k46w4c+/ytupQScPEAJyiwWP0SfaIBarLR56u9FXx+SypPvghN2sKHA+FH47OT7P/s4LobbsHnK8fpdOLx2HG5vPhEQ9f8KCtlQdd1Q3L34vUqlNKxWCz4vF4sFgtW8eKzWHn3vacLZ2XktIgFhKtGfzjpwFtpAxsGAPCEAFFdgPH5C7ShnxwoMwgWEPUzMaaY3FIpxeQH4Ir7oPHvwNqoJ127LyH3+CoqKosoqSig8mwZTmchdrsLr88L2PF4ErFYnFiUE01PwqISsVid6JoNq9WJ1ZqM1+siISEFn89Dv35rXgfGxyqqPJenyfTmCcHs7zUBEiDCIC8Q/8TBvywsBggWU3RINoHgAlKUWgh0evVOfvfRNiqBw7WMq2kYbm0CXATQpw+4PWBLhEQbpE9HAxYb2okzHmUpwyPSO6AKeUOKMAKIITZqEhKLA3xgAOAzRp5ogGD72RMWA38NRB3gNPH9H4cGwI0GzuZUJMt8v3jqDs/alEr0iDxpDdEFPIGXb/H/WkNIx0yAYsoVzBUp9bfhh4HnTF2P/gLucwA76/qbJXO6vdoh8udwnmBOk1WYokug+UwJkw24qlu/E4Vr07sAufyK9kuE1mQgo1jk8QYmALQw1aag6GBSkwKZowCNldoJ9ADyucBMAaM2/HQ86DsFc6swbaErQz7kcIrIgTK7AHNMUfKCtYeB3esPHj2n3mBugfJZiYhw8x0OYEaY9Ps3eZN1aa2BR4E7ad2ize9aXtO8c9u7G2/bf6j8vjv+eFIpnFNHDy8z3vwGoKA+vMH/B0q6RYv1PpSJAAAAAElFTkSuQmCC\" alt=\"Boolog Logo\" />&nbsp;$title</h1>\r\n<hr>\r\n<small><i>Powered by Boolog...</i></small>\r\n\r\n"
@@ -39,6 +41,10 @@ internal fun highlight(message: String, style: String = "highlighted"): String {
     return "<p class=\"$style outlined\">&nbsp;$message&nbsp;</p>"
 }
 
+// What highlight() puts either side of a message, for rows that are written piece by piece.
+private const val HIGHLIGHT_START = "<p class=\"highlighted outlined\">&nbsp;"
+private const val HIGHLIGHT_END = "&nbsp;</p>"
+
 /**
  * BoologConcludedException is thrown if an attempt is made to write to a boolog that has already
  * had it's file closed (by the explict conclude() function) or has been included as a subsection
@@ -73,8 +79,36 @@ open class Boolog (
     private val printWriter_HTML: PrintWriter? = forHTML
     private val printWriter_PlainText: PrintWriter? = forPlainText
     private val content = StringBuilder(STARTING_CONTENT)
+    private val timestamps = TimestampCache()
+
+    // Guards content and the HTML stream. It's private, so that callers synchronizing on the Boolog itself can't
+    // hold up the writer thread of an asynchronous Boolog.
+    private val lock = Any()
+
+    // Guards firstEcho and the plain-text line buffers, so that the title is echoed exactly once however many
+    // threads log at the same moment.
+    private val plainTextLock = Any()
+    private val plainTextLine = StringBuilder()
+    private var plainTextChars = CharArray(0)
+
+    private val threadSection = ThreadLocal<Boolog>()
+    private val openThreadSections = ConcurrentLinkedQueue<Boolog>()
+
+    @Volatile
     private var isConcluded = false
     private var firstEcho = true
+    @Volatile
+    private var hasRows = false
+    private var isStreaming = false
+    private var streamingChars = CharArray(0)
+    private var lastStreamed = 0L
+    private var shutdownHook: Thread? = null
+
+    @Volatile
+    private var escapesMessages = false
+
+    @Volatile
+    private var asyncWriter: AsyncBoologWriter? = null
 
     init {
         if (printWriter_HTML != null) {
@@ -89,11 +123,150 @@ open class Boolog (
      * Will return false if this boolog never got used. This may be used to decline adding an empty subsection to another Boolog.
      */
     val wasUsed: Boolean
-        get() = (content.length - STARTING_CONTENT.length) > 0
+        get() = hasRows
+
+    /**
+     * The queue and writer thread of a Boolog that's writing asynchronously, for keeping an eye on how deep the
+     * queue gets and whether anything was dropped. Null unless writeAsynchronously() was called.
+     */
+    val asynchronousWriter: AsyncBoologWriter?
+        get() = asyncWriter
 
     internal val encapsulationTag: String
         get() = "lvl-${UUID.randomUUID()}"
 
+    /**
+     * streamHTML: Switches a root-level Boolog to writing its HTML file as it goes, rather than holding all of it
+     * until conclude(). Rows are written through a buffer that's emptied every 64 KiB or every second, whichever
+     * comes first, so the memory a long-running log uses stays the same however long it runs, and the file is
+     * readable up to the last few rows even if the program dies. If the JVM shuts down before conclude() is
+     * called, it's called then, so the file is always properly finished.
+     *
+     * A streaming Boolog can't be shown as a subsection of another Boolog, since it no longer has its content.
+     * Once it's streaming, conclude() returns an empty string. This has no effect if there's no HTML output.
+     *
+     * @return This Boolog, so this can be called as it's constructed.
+     */
+    fun streamHTML(): Boolog {
+        synchronized(lock) {
+            if (isConcluded) {
+                throw BoologConcludedException()
+            }
+
+            if ((printWriter_HTML != null) && !isStreaming) {
+                isStreaming = true
+                streamContent()
+                addShutdownHook()
+            }
+        }
+
+        return this
+    }
+
+    /**
+     * writeAsynchronously: Switches this Boolog to doing its writing on a thread of its own. Logging a line then
+     * only puts the message, emoji and time in a queue, without taking a lock. The writer thread formats the
+     * queued lines, writes them in batches and flushes the plain-text stream once per batch rather than once per
+     * line. conclude() writes everything that's still queued first, as does the JVM shutting down.
+     *
+     * @param capacity How many lines can be waiting at once. It's rounded up to a power of two.
+     * @param overflowPolicy What to do with a line when the queue is full. Lines that are dropped are counted, and the log says how many.
+     * @return This Boolog, so this can be called as it's constructed.
+     */
+    fun writeAsynchronously(capacity: Int = DEFAULT_ASYNC_CAPACITY, overflowPolicy: OverflowPolicy = OverflowPolicy.BLOCK): Boolog {
+        synchronized(lock) {
+            if (isConcluded) {
+                throw BoologConcludedException()
+            }
+
+            if (asyncWriter == null) {
+                asyncWriter = AsyncBoologWriter(title, capacity, overflowPolicy, timestamps, ::writeEvent, ::endBatch)
+                addShutdownHook()
+            }
+        }
+
+        return this
+    }
+
+    /**
+     * escapeMessages: Has info(), debug() and error() show their messages as text, escaping anything that would
+     * otherwise be taken as HTML, so callers don't have to escape them first. The escaping is done as the row is
+     * written, without making an escaped copy of the message. writeToHTML() and the show functions still send
+     * HTML verbatim, and the plain-text stream is never escaped.
+     *
+     * @return This Boolog, so this can be called as it's constructed.
+     */
+    fun escapeMessages(): Boolog {
+        escapesMessages = true
+        return this
+    }
+
+    private val messageStyle: Int
+        get() = if (escapesMessages) LogEvent.ESCAPED else 0
+
+    private fun addShutdownHook() {
+        if (shutdownHook != null) return
+        val hook = Thread {
+            if (isStreaming) conclude() else asyncWriter?.stop()
+        }
+
+        Runtime.getRuntime().addShutdownHook(hook)
+        shutdownHook = hook
+    }
+
+    // Called on the writer thread.
+    private fun writeEvent(event: LogEvent) {
+        if ((event.kind and LogEvent.HTML) != 0) {
+            appendRow(event.message, event.emoji, event.localMilliseconds, event.kind)
+        }
+
+        if ((event.kind and LogEvent.PLAIN_TEXT) != 0) {
+            printPlainText(event.message, event.emoji, event.localMilliseconds, false)
+        }
+    }
+
+    // Called on the writer thread, after each batch and every so often while it's idle.
+    private fun endBatch() {
+        printWriter_PlainText?.flush()
+        synchronized(lock) {
+            if (isStreaming && !isConcluded && (content.length > 0) && (System.nanoTime() - lastStreamed >= STREAMING_FLUSH_NANOSECONDS)) {
+                streamContent()
+            }
+        }
+    }
+
+    private fun enqueue(writer: AsyncBoologWriter, kind: Int, message: String, emoji: String, localMilliseconds: Long = timestamps.now()) {
+        if (isConcluded) {
+            throw BoologConcludedException()
+        }
+
+        if ((kind and LogEvent.HTML) != 0) hasRows = true
+        writer.enqueue(LogEvent(kind, message, emoji, localMilliseconds))
+    }
+
+    private fun streamContent() {
+        printWriter_HTML?.let {
+            writeContent(it)
+            it.flush()
+        }
+
+        content.setLength(0)
+        if (content.capacity() > STREAMING_BUFFER_SIZE * 2) content.trimToSize()
+        lastStreamed = System.nanoTime()
+    }
+
+    // Copies content out through a buffer that's kept, rather than making a String of all of it.
+    private fun writeContent(writer: PrintWriter) {
+        if (streamingChars.isEmpty()) streamingChars = CharArray(COPY_BUFFER_SIZE)
+        var start = 0
+        while (start < content.length) {
+            val end = minOf(content.length, start + streamingChars.size)
+            content.getChars(start, end, streamingChars, 0)
+            writer.write(streamingChars, 0, end - start)
+            start = end
+        }
+    }
+
     /**
      * conclude: This explicitly puts the boolog in concluded status. If a printwriter for
      * HTML output had been supplied at construction time, that file will be properly closed.
@@ -104,25 +277,56 @@ open class Boolog (
      *
      * @return Returns the HTML content that was (or would be) written to its HTML output file.
      * This content is what's used to add it as a subsection of another Boolog, and does not include the header.
+     * A Boolog that was streaming has already written its content, and returns an empty string.
      */
     fun conclude(): String {
-        if (!isConcluded) {
-            echoPlainText("", EMOJI_TEXT_BOOLOG_CONCLUDE)
-            echoPlainText("")
-
-            isConcluded = true
+        // Open thread sections are embedded first, and in the order they were opened, so they go through the queue like any other row.
+        while (true) {
+            val section = openThreadSections.poll() ?: break
+            if (!isConcluded) showBoolog(section)
+        }
 
-            content.append("\r\n</table>")
+        // The writer thread takes the lock while it writes, so it has to finish before concluding takes the lock.
+        // Stopping closes its queue first, so a line that races this is written or counted as dropped, never lost.
+        asyncWriter?.stop()
+        return concludeNow()
+    }
 
-            if (printWriter_HTML != null) {
-                printWriter_HTML.print(content.toString())
-                printWriter_HTML.print("\r\n</body>\r\n</html>")
-                printWriter_HTML.flush()
-                printWriter_HTML.close()
+    private fun concludeNow(): String {
+        synchronized(lock) {
+            if (!isConcluded) {
+                val timestamp = timestamps.now()
+                printPlainText("", EMOJI_TEXT_BOOLOG_CONCLUDE, timestamp, false)
+                printPlainText("", EMOJI_TEXT_BLANK_LINE, timestamp, true)
+
+                isConcluded = true
+
+                content.append("\r\n</table>")
+
+                if (printWriter_HTML != null) {
+                    writeContent(printWriter_HTML)
+                    printWriter_HTML.print("\r\n</body>\r\n</html>")
+                    printWriter_HTML.flush()
+                    printWriter_HTML.close()
+                }
+
+                if (isStreaming) {
+                    content.setLength(0)
+                }
+
+                shutdownHook?.let {
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(it)
+                    } catch (dontCare: IllegalStateException) {
+                        // The JVM is already shutting down, which may be why this is being concluded.
+                    }
+                }
+
+                shutdownHook = null
             }
-        }
 
-        return content.toString()
+            return content.toString()
+        }
     }
 
     // Parameter order differs from the C# version
@@ -139,6 +343,10 @@ open class Boolog (
      * @param timestamp Omit this to use the current date/time. There are some circumstances where an event is logged after-the-fact and an explicit time stamp should be passed in. Note that the time stamp will be discarded if this Boolog was created with showTimestamps=false.
      */
     fun echoPlainText(message: String, emoji: String = EMOJI_TEXT_BLANK_LINE, timestamp: LocalDateTime? = LocalDateTime.now()) {
+        echoLine(message, emoji, localMillisecondsOf(timestamp))
+    }
+
+    private fun echoLine(message: String, emoji: String, localMilliseconds: Long) {
         if (printWriter_PlainText == null) {
             // Silently decline
             return
@@ -148,28 +356,64 @@ open class Boolog (
             throw BoologConcludedException()
         }
 
-        if (firstEcho) {
-            firstEcho = false
-            echoPlainText("", timestamp = timestamp)
-            echoPlainText(title, EMOJI_BOOLOG, timestamp)
+        asyncWriter?.let {
+            enqueue(it, LogEvent.PLAIN_TEXT, message, emoji, localMilliseconds)
+            return
+        }
+
+        printPlainText(message, emoji, localMilliseconds, true)
+    }
+
+    private fun printPlainText(message: String, emoji: String, localMilliseconds: Long, flush: Boolean) {
+        if (printWriter_PlainText == null) {
+            return
+        }
+
+        synchronized(plainTextLock) {
+            if (firstEcho) {
+                firstEcho = false
+                writePlainTextLine(printWriter_PlainText, "", EMOJI_TEXT_BLANK_LINE, localMilliseconds)
+                writePlainTextLine(printWriter_PlainText, title, EMOJI_BOOLOG, localMilliseconds)
+            }
+
+            writePlainTextLine(printWriter_PlainText, message, emoji, localMilliseconds)
         }
 
+        if (flush) printWriter_PlainText.flush()
+    }
 
+    // Each line, separator included, goes out in a single call, so lines logged by different threads (or by thread
+    // sections sharing the stream) can't run into each other. The line is built in buffers that are kept between lines.
+    private fun writePlainTextLine(writer: PrintWriter, message: String, emoji: String, localMilliseconds: Long) {
+        val line = plainTextLine
+        line.setLength(0)
         if (showTimestamps) {
-            var dateTime = "                        "
-            timestamp?.let {
-                dateTime = it.format(PLAINTEXT_DATETIME_FORMATTER)
+            if (localMilliseconds == NO_TIMESTAMP) {
+                line.append(BLANK_PLAINTEXT_DATETIME)
+            } else {
+                timestamps.appendDate(line, localMilliseconds)
+                line.append('\t')
+                timestamps.appendTime(line, localMilliseconds)
             }
 
-            printWriter_PlainText.print("$dateTime\t")
+            line.append('\t')
         }
 
         if (showEmojis) {
-            printWriter_PlainText.print("$emoji\t")
+            line.append(emoji).append('\t')
         }
 
-        printWriter_PlainText.println(message)
-        printWriter_PlainText.flush()
+        line.append(message).append(LINE_SEPARATOR)
+        if (plainTextChars.size < line.length) plainTextChars = CharArray(maxOf(line.length, 256))
+        line.getChars(0, line.length, plainTextChars, 0)
+        writer.write(plainTextChars, 0, line.length)
+
+        // Don't hang on to the room an unusually long message needed.
+        if (line.length > STREAMING_BUFFER_SIZE) {
+            line.setLength(0)
+            line.trimToSize()
+            plainTextChars = CharArray(0)
+        }
     }
 
     // Parameter order differs from the C# version
@@ -183,26 +427,64 @@ open class Boolog (
      * @param timestamp Omit this to use the current date/time. There are some circumstances where an event is logged after-the-fact and an explicit time stamp should be passed in.
      */
     fun writeToHTML(message: String, emoji: String = EMOJI_TEXT_BLANK_LINE, timestamp: LocalDateTime? = LocalDateTime.now()) {
+        writeRow(message, emoji, localMillisecondsOf(timestamp))
+    }
+
+    // style is any of LogEvent.HIGHLIGHTED and LogEvent.ESCAPED.
+    private fun writeRow(message: String, emoji: String, localMilliseconds: Long, style: Int = 0) {
         if (isConcluded) {
             throw BoologConcludedException()
         }
 
-        content.append("<tr>")
+        asyncWriter?.let {
+            enqueue(it, LogEvent.HTML or style, message, emoji, localMilliseconds)
+            return
+        }
 
-        if (showTimestamps) {
-            timestamp?.let {
-                var date = it.format(HTML_DATE_FORMATTER)
-                var time = it.format(HTML_TIME_FORMATTER)
+        hasRows = true
+        appendRow(message, emoji, localMilliseconds, style)
+    }
 
-                content.append("<td class=\"min\"><small>$date</small></td><td>&nbsp;</td><td class=\"min\"><small>$time</small></td><td>&nbsp;</td>")
+    // The row is appended piece by piece, so writing it makes no temporary strings. Concluding may have happened
+    // since the caller last checked, so it's checked again under the lock, rather than the row landing after the
+    // end of the table or on a closed stream.
+    private fun appendRow(message: String, emoji: String, localMilliseconds: Long, style: Int) {
+        synchronized(lock) {
+            if (isConcluded) {
+                throw BoologConcludedException()
             }
-        }
 
-        if (showEmojis) {
-            content.append("<td><h2>$emoji</h2></td>")
-        }
+            content.append("<tr>")
+
+            if (showTimestamps && (localMilliseconds != NO_TIMESTAMP)) {
+                content.append("<td class=\"min\"><small>")
+                timestamps.appendDate(content, localMilliseconds)
+                content.append("</small></td><td>&nbsp;</td><td class=\"min\"><small>")
+                timestamps.appendTime(content, localMilliseconds)
+                content.append("</small></td><td>&nbsp;</td>")
+            }
+
+            if (showEmojis) {
+                content.append("<td><h2>").append(emoji).append("</h2></td>")
+            }
 
-        content.append("<td>$message</td></tr>\r\n")
+            content.append("<td>")
+            val highlighted = (style and LogEvent.HIGHLIGHTED) != 0
+            if (highlighted) content.append(HIGHLIGHT_START)
+
+            if ((style and LogEvent.ESCAPED) != 0) {
+                appendEscapedHTML(content, message)
+            } else {
+                content.append(message)
+            }
+
+            if (highlighted) content.append(HIGHLIGHT_END)
+            content.append("</td></tr>\r\n")
+
+            if (isStreaming && ((content.length >= STREAMING_BUFFER_SIZE) || (System.nanoTime() - lastStreamed >= STREAMING_FLUSH_NANOSECONDS))) {
+                streamContent()
+            }
+        }
     }
 
     /**
@@ -213,9 +495,14 @@ open class Boolog (
      * @param emoji If not omitted, you can use this to designate an emoji to appear next to the line. There are emoji constants available in Constants.kt.
      */
     fun info(message: String, emoji: String = EMOJI_TEXT_BLANK_LINE) {
-        val timestamp = LocalDateTime.now()
-        writeToHTML(message, emoji, timestamp)
-        echoPlainText(message, emoji, timestamp)
+        asyncWriter?.let {
+            enqueue(it, LogEvent.BOTH or messageStyle, message, emoji)
+            return
+        }
+
+        val timestamp = timestamps.now()
+        writeRow(message, emoji, timestamp, messageStyle)
+        echoLine(message, emoji, timestamp)
     }
 
     /**
@@ -225,9 +512,14 @@ open class Boolog (
      * @param message The information being logged.
      */
     fun debug(message: String) {
-        val timestamp = LocalDateTime.now()
-        writeToHTML(highlight(message), EMOJI_DEBUG, timestamp)
-        echoPlainText(message, EMOJI_DEBUG, timestamp)
+        asyncWriter?.let {
+            enqueue(it, LogEvent.BOTH or LogEvent.HIGHLIGHTED or messageStyle, message, EMOJI_DEBUG)
+            return
+        }
+
+        val timestamp = timestamps.now()
+        writeRow(message, EMOJI_DEBUG, timestamp, LogEvent.HIGHLIGHTED or messageStyle)
+        echoLine(message, EMOJI_DEBUG, timestamp)
     }
 
     /**
@@ -237,9 +529,14 @@ open class Boolog (
      * @param message The information being logged.
      */
     fun error(message: String) {
-        val timestamp = LocalDateTime.now()
-        writeToHTML(highlight(message), EMOJI_ERROR, timestamp)
-        echoPlainText(message, EMOJI_ERROR, timestamp)
+        asyncWriter?.let {
+            enqueue(it, LogEvent.BOTH or LogEvent.HIGHLIGHTED or messageStyle, message, EMOJI_ERROR)
+            return
+        }
+
+        val timestamp = timestamps.now()
+        writeRow(message, EMOJI_ERROR, timestamp, LogEvent.HIGHLIGHTED or messageStyle)
+        echoLine(message, EMOJI_ERROR, timestamp)
     }
 
     /**
@@ -247,8 +544,9 @@ open class Boolog (
      *
      */
     fun skipLine() {
-        writeToHTML("")
-        echoPlainText("")
+        val timestamp = timestamps.now()
+        writeRow("", EMOJI_TEXT_BLANK_LINE, timestamp)
+        echoLine("", EMOJI_TEXT_BLANK_LINE, timestamp)
     }
 
     private fun wrapAsSubordinate(boologTitle: String, boologContent: String, style: String = "neutral"): String {
@@ -267,14 +565,55 @@ open class Boolog (
      * @return Returns the HTML to represent the subordinate Boolog as a subsection of this one.
      */
     fun showBoolog(subordinate: Boolog, emoji: String = EMOJI_BOOLOG, style: String = "neutral", recurseLevel: Int = 0) : String {
-        val timestamp = LocalDateTime.now()
+        val timestamp = timestamps.now()
         val subordinateContent = subordinate.conclude()
         val result = wrapAsSubordinate(subordinate.title, subordinateContent, style)
 
         if (recurseLevel < 1) {
-            writeToHTML(result, emoji, timestamp)
+            writeRow(result, emoji, timestamp)
         }
 
         return result
     }
+
+    /**
+     * threadSection: Returns a subsection of this Boolog that belongs to the calling thread, creating it the first
+     * time that thread asks for it, or if the one it had has since been concluded. Each thread logs to its own
+     * section without waiting on the others, and the sections are embedded in this Boolog in the order they were
+     * opened when it's concluded, unless a thread calls concludeThreadSection() to embed its own sooner. A section
+     * shares this Boolog's plain-text stream, and is titled with this Boolog's title and the thread's name.
+     *
+     * @return The calling thread's subsection of this Boolog.
+     */
+    fun threadSection(): Boolog {
+        // A section that's been concluded some other way is finished with, so a new one is started in its place.
+        threadSection.get()?.let {
+            if (!it.isConcluded) return it
+        }
+
+        if (isConcluded) {
+            throw BoologConcludedException()
+        }
+
+        val section = Boolog("$title — ${Thread.currentThread().name}", printWriter_PlainText, null, showTimestamps, showEmojis, THEME_NONE)
+        threadSection.set(section)
+        openThreadSections.add(section)
+        return section
+    }
+
+    /**
+     * concludeThreadSection: Embeds the calling thread's subsection in this Boolog now, rather than waiting for
+     * this Boolog to be concluded. The next call to threadSection() on this thread starts a new one. This does
+     * nothing if the calling thread has no section open.
+     *
+     * @param emoji If not omitted, you can use this to override the "Boolog" emoji that normally appears next to the subsection.
+     * @param style If not omitted, you can use this to override the "neutral" theme the subsection will have.
+     */
+    fun concludeThreadSection(emoji: String = EMOJI_BOOLOG, style: String = "neutral") {
+        val section = threadSection.get() ?: return
+        threadSection.remove()
+        if (openThreadSections.remove(section)) {
+            showBoolog(section, emoji, style)
+        }
+    }
 }
@@ -61,6 +61,43 @@ fun treatAsCode(value: String): String {
     return "<pre><code><xmp>$value</xmp></code></pre>"
 }
 
+/**
+ * escapeHTML: Replaces the characters that HTML would treat as markup (&, <, >, " and ') with their character
+ * entities, so that the browser shows the value as text.
+ *
+ * @param value The string to be escaped.
+ * @return The escaped string. If nothing needed escaping, this is the same string that was passed in.
+ */
+fun escapeHTML(value: String): String {
+    if (value.none { escapedEntity(it) != null }) return value
+    val result = StringBuilder(value.length + 16)
+    appendEscapedHTML(result, value)
+    return result.toString()
+}
+
+internal fun appendEscapedHTML(target: StringBuilder, value: String) {
+    // Runs of characters that don't need escaping are copied in one go.
+    var runStart = 0
+    for (index in value.indices) {
+        val entity = escapedEntity(value[index]) ?: continue
+        target.append(value, runStart, index).append(entity)
+        runStart = index + 1
+    }
+
+    target.append(value, runStart, value.length)
+}
+
+private fun escapedEntity(character: Char): String? {
+    return when (character) {
+        '&' -> "&amp;"
+        '<' -> "&lt;"
+        '>' -> "&gt;"
+        '"' -> "&quot;"
+        '\'' -> "&#39;"
+        else -> null
+    }
+}
+
 // It is left up to the end user as to when a field should be base64 decoded or pretty-printed.
 /**
  * processString: This will be called for nearly every message or string field that Boolog tries to log. Any processing
@@ -0,0 +1,124 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.boolog
+
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.format.DateTimeFormatter
+
+// Time stamps are carried around as "local milliseconds": milliseconds since midnight, January 1st 1970, in the
+// local time zone rather than UTC. That's all it takes to show one, and it's a plain Long.
+internal const val NO_TIMESTAMP = Long.MIN_VALUE
+internal const val MILLISECONDS_PER_DAY = 86_400_000L
+
+private val DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd")
+
+internal fun localMillisecondsOf(timestamp: LocalDateTime?): Long {
+    if (timestamp == null) return NO_TIMESTAMP
+    return timestamp.toLocalDate().toEpochDay() * MILLISECONDS_PER_DAY + timestamp.toLocalTime().toNanoOfDay() / 1_000_000L
+}
+
+/**
+ * TimestampCache turns the clock into local time and renders time stamps without a DateTimeFormatter. The date
+ * is formatted once and reused until the day changes. The time of day is written out digit by digit. The time
+ * zone's offset is looked up once and reused until its next transition, so reading the clock costs no more
+ * than System.currentTimeMillis(). This is safe to share between threads. Each cached value is replaced
+ * whole, and a thread that sees an old one just works it out again.
+ */
+internal class TimestampCache(private val zone: ZoneId = ZoneId.systemDefault()) {
+    private class CachedDay(val day: Long, val text: String)
+    private class CachedOffset(val from: Long, val until: Long, val offsetMilliseconds: Long)
+
+    @Volatile
+    private var cachedDay = CachedDay(Long.MIN_VALUE, "")
+
+    @Volatile
+    private var cachedOffset = CachedOffset(0, 0, 0)
+
+    /**
+     * now: The current time in local milliseconds. Milliseconds are all a log shows, and the millisecond clock is
+     * the cheapest one to read.
+     */
+    fun now(): Long = localMillisecondsAt(System.currentTimeMillis())
+
+    fun localMillisecondsAt(epochMilliseconds: Long): Long {
+        var offset = cachedOffset
+        if ((epochMilliseconds < offset.from) || (epochMilliseconds >= offset.until)) {
+            offset = offsetAt(epochMilliseconds)
+            cachedOffset = offset
+        }
+
+        return epochMilliseconds + offset.offsetMilliseconds
+    }
+
+    private fun offsetAt(epochMilliseconds: Long): CachedOffset {
+        val rules = zone.rules
+        val instant = Instant.ofEpochMilli(epochMilliseconds)
+        // Asking for the transition before the next millisecond includes one happening at this very instant.
+        val from = rules.previousTransition(instant.plusMillis(1))?.instant?.toEpochMilli() ?: Long.MIN_VALUE
+        val until = rules.nextTransition(instant)?.instant?.toEpochMilli() ?: Long.MAX_VALUE
+        return CachedOffset(from, until, rules.getOffset(instant).totalSeconds * 1000L)
+    }
+
+    // yyyy-MM-dd
+    fun appendDate(target: StringBuilder, localMilliseconds: Long) {
+        val day = Math.floorDiv(localMilliseconds, MILLISECONDS_PER_DAY)
+        var cached = cachedDay
+        if (cached.day != day) {
+            cached = CachedDay(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER))
+            cachedDay = cached
+        }
+
+        target.append(cached.text)
+    }
+
+    // HH:mm:ss.SSS
+    fun appendTime(target: StringBuilder, localMilliseconds: Long) {
+        var remaining = Math.floorMod(localMilliseconds, MILLISECONDS_PER_DAY).toInt()
+        val milliseconds = remaining % 1000
+        remaining /= 1000
+        val seconds = remaining % 60
+        remaining /= 60
+        val minutes = remaining % 60
+        val hours = remaining / 60
+
+        appendTwoDigits(target, hours)
+        target.append(':')
+        appendTwoDigits(target, minutes)
+        target.append(':')
+        appendTwoDigits(target, seconds)
+        target.append('.')
+        target.append(DIGITS[milliseconds / 100])
+        appendTwoDigits(target, milliseconds % 100)
+    }
+
+    private fun appendTwoDigits(target: StringBuilder, value: Int) {
+        target.append(DIGITS[value / 10])
+        target.append(DIGITS[value % 10])
+    }
+
+    private companion object {
+        val DIGITS = "0123456789".toCharArray()
+    }
+}
@@ -0,0 +1,177 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan.benchmark
+
+import hoodland.opensource.boolog.Boolog
+import hoodland.opensource.changescan.*
+import hoodland.opensource.toolbox.benchmark.*
+import hoodland.opensource.toolbox.getCurrentWorkingDirectory
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+import java.nio.file.Files
+
+// Times each phase of a ChangeScan run against a synthetic tree: the first scan (every file hashed), saving and
+// loading its baseline, an incremental rescan after the tree has churned, the streaming comparison, the report,
+// and the whole thing end to end through ScanEngine.run(). Each phase reports files/s, MB/s, peak heap and GC time,
+// so a regression in any one of them shows up even when the others hide it in the total.
+// Arguments (all optional): <depth> <fan-out> <files per directory> <median file size in KiB> <churn percent>
+//                           <passes> <CSV output path>
+fun main(args: Array<String>) {
+    val depth = args.getOrNull(0)?.toIntOrNull() ?: 3
+    val fanOut = args.getOrNull(1)?.toIntOrNull() ?: 8
+    val filesPerDirectory = args.getOrNull(2)?.toIntOrNull() ?: 20
+    val medianFileSize = (args.getOrNull(3)?.toIntOrNull() ?: 4) * 1024
+    val churnPercent = args.getOrNull(4)?.toDoubleOrNull() ?: 5.0
+    val passes = args.getOrNull(5)?.toIntOrNull() ?: 3
+    val csvPath = args.getOrNull(6) ?: "${getCurrentWorkingDirectory()}${File.separator}ChangeScanBenchmark.csv"
+
+    val workFolder = Files.createTempDirectory("ChangeScanBenchmark").toFile()
+    val passResults = try {
+        measuredPasses(passes) { pass ->
+            val results = runPass(workFolder, depth, fanOut, filesPerDirectory, medianFileSize, churnPercent)
+            if (pass == 0) {
+                println("Tree: ${results[0].files} files, ${"%.1f".format(results[0].megabytes)} MB. Warm-up pass done.")
+            } else {
+                println("Pass $pass of $passes done.")
+            }
+
+            results
+        }
+    } finally {
+        workFolder.deleteRecursively()
+    }
+
+    val table = BenchmarkTable("Phase", "files", "MB", "ms", "files/s", "MB/s", "peak heap MB", "GC ms", "GC count")
+    for ((phase, results) in passResults.flatten().groupBy { it.phase }) {
+        val result = median(results) { it.nanoseconds }
+        val seconds = result.nanoseconds / 1_000_000_000.0
+        val peakHeap = results.maxOf { it.peakHeapBytes } / (1024.0 * 1024.0)
+        table.add(
+                phase,
+                result.files.toString(),
+                "%.1f".format(result.megabytes),
+                "%.1f".format(result.nanoseconds / 1_000_000.0),
+                "%.0f".format(result.files / seconds),
+                "%.1f".format(result.megabytes / seconds),
+                "%.1f".format(peakHeap),
+                "%.1f".format(results.map { it.gcMilliseconds }.average()),
+                "%.1f".format(results.map { it.gcCount }.average()))
+    }
+
+    table.save(csvPath)
+}
+
+private fun runPass(workFolder: File, depth: Int, fanOut: Int, filesPerDirectory: Int, medianFileSize: Int, churnPercent: Double): List<PhaseResult> {
+    val treeFolder = File(workFolder, "tree")
+    val baselinePath = File(workFolder, "baseline.fsc").path
+    val reportPath = File(workFolder, "report.html").path
+    treeFolder.deleteRecursively()
+    val tree = SyntheticTree(treeFolder, depth, fanOut, filesPerDirectory, medianFileSize)
+    tree.generate()
+
+    val workOrder = WorkOrder()
+    workOrder.verbosity = Verbosity.SUMMARY
+    val activityLog = Boolog("Activity")
+    val errorLog = Boolog("Errors")
+    val results = ArrayList<PhaseResult>()
+
+    val baseline = FileSystemDescription()
+    results.add(measurePhase("scan (every file hashed)", { baseline.size.toLong() }, { baseline.fileDescriptions.sumOf { it.size } }) {
+        ScanEngine.scanTree(activityLog, errorLog, workOrder, treeFolder.path, baseline, null)
+    })
+
+    results.add(measurePhase("save baseline", { baseline.size.toLong() }, { File(baselinePath).length() }) {
+        baseline.save(baselinePath)
+    })
+
+    var loaded = FileSystemDescription()
+    results.add(measurePhase("load baseline", { loaded.size.toLong() }, { File(baselinePath).length() }) {
+        loaded = FileSystemDescription.loadInstance(baselinePath)
+    })
+
+    tree.churn(churnPercent)
+    val rescan = FileSystemDescription()
+    results.add(measurePhase("incremental rescan after churn", { rescan.size.toLong() }, { rescan.fileDescriptions.sumOf { it.size } }) {
+        ScanEngine.scanTree(activityLog, errorLog, workOrder, treeFolder.path, rescan, loaded)
+    })
+
+    var comparison: FileSystemComparison? = null
+    results.add(measurePhase("compare (streamed baseline)", { (loaded.size + rescan.size).toLong() }, { File(baselinePath).length() }) {
+        FileSystemDescription.openBaseline(baselinePath).use { original ->
+            comparison = FileSystemComparison(activityLog, original, rescan.sortedSource(), Verbosity.SUMMARY)
+        }
+    })
+
+    val differences = comparison!!.let { it.newToCandidate.size + it.removedInCandidate.size + it.movedInCandidate.size + it.contentDifferences.size + it.timestampDifferences.size }
+    results.add(measurePhase("report", { differences.toLong() }, { File(reportPath).length() }) {
+        val report = ReportGenerator(reportPath)
+        report.prepare(comparison!!)
+        report.conclude(errorLog)
+    })
+
+    // The same work as a user would run it, minus the first scan: rescan, save, compare and report.
+    val endToEndBaselinePath = File(workFolder, "end-to-end.fsc").path
+    val endToEndOrder = interpretArgs(arrayOf("ROOT", treeFolder.path, "COMPARE", baselinePath, "INCREMENTAL", "SAVE", endToEndBaselinePath, "REPORT", reportPath, "VERBOSITY", "SUMMARY"))
+    results.add(measurePhase("end to end (ScanEngine.run)", { rescan.size.toLong() }, { rescan.fileDescriptions.sumOf { it.size } }) {
+        val report = ReportGenerator(reportPath)
+        ScanEngine.run(activityLog, errorLog, endToEndOrder, report)
+        report.conclude(errorLog)
+    })
+
+    return results
+}
+
+private class PhaseResult(
+        val phase: String,
+        val files: Long,
+        val bytes: Long,
+        val nanoseconds: Long,
+        val peakHeapBytes: Long,
+        val gcMilliseconds: Long,
+        val gcCount: Long) {
+    val megabytes: Double
+        get() = bytes / (1024.0 * 1024.0)
+}
+
+// The file and byte counts are worked out after the phase, since some phases are what produce them.
+private fun measurePhase(phase: String, files: () -> Long, bytes: () -> Long, operation: () -> Unit): PhaseResult {
+    val heapPools = ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP }
+    val collectors = ManagementFactory.getGarbageCollectorMXBeans()
+
+    // Start every phase from a collected heap, so the peak is this phase's own.
+    System.gc()
+    heapPools.forEach { it.resetPeakUsage() }
+    val gcTimeBefore = collectors.sumOf { maxOf(it.collectionTime, 0L) }
+    val gcCountBefore = collectors.sumOf { maxOf(it.collectionCount, 0L) }
+
+    val measurement = measure(operation)
+
+    return PhaseResult(
+            phase,
+            files(),
+            bytes(),
+            measurement.nanoseconds,
+            heapPools.sumOf { it.peakUsage.used },
+            collectors.sumOf { maxOf(it.collectionTime, 0L) } - gcTimeBefore,
+            collectors.sumOf { maxOf(it.collectionCount, 0L) } - gcCountBefore)
+}
@@ -0,0 +1,150 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan.benchmark
+
+import hoodland.opensource.boolog.Boolog
+import hoodland.opensource.changescan.*
+import hoodland.opensource.toolbox.*
+import hoodland.opensource.toolbox.benchmark.*
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+
+// Compares the directory walk ChangeScan used to do (File.listFiles(), then isFile()/isDirectory() on every entry,
+// then Files.readAttributes() again for each file) with the current single-pass DirectoryStream walk. Both rescan
+// a tree that hasn't changed since its baseline, so no file is opened and the walk itself is what's measured.
+// The time is the real ScanEngine's. The file system calls are counted on reproductions of both walks, since the
+// real one can't be counted from outside.
+// Arguments (all optional): <directories> <files per directory> <CSV output path>
+fun main(args: Array<String>) {
+    val directoryCount = args.getOrNull(0)?.toIntOrNull() ?: 100
+    val filesPerDirectory = args.getOrNull(1)?.toIntOrNull() ?: 200
+    val csvPath = args.getOrNull(2) ?: "${getCurrentWorkingDirectory()}${File.separator}DirectoryScanBenchmark.csv"
+    val fileCount = directoryCount * filesPerDirectory
+
+    val root = Files.createTempDirectory("DirectoryScanBenchmark").toFile()
+    println("Creating $fileCount files in $directoryCount directories under $root")
+    repeat(directoryCount) { directoryIndex ->
+        val directory = File(root, "dir$directoryIndex")
+        directory.mkdirs()
+        repeat(filesPerDirectory) { File(directory, "file$it.txt").writeText("File $it of directory $directoryIndex") }
+    }
+
+    try {
+        val workOrder = WorkOrder()
+        workOrder.verbosity = Verbosity.SUMMARY
+        val activityLog = Boolog("Activity")
+        val errorLog = Boolog("Errors")
+        val baseline = FileSystemDescription()
+        ScanEngine.scanTree(activityLog, errorLog, workOrder, root.toString(), baseline, null)
+
+        val legacyCalls = LegacyWalk(workOrder, baseline)
+        val currentCalls = CurrentWalk(workOrder, baseline)
+        currentCalls.walk(root.toString(), FileSystemDescription())
+        val results = ArrayList<BenchmarkResult>()
+        results.add(benchmark("listFiles + isFile + readAttributes (old)") {
+            legacyCalls.calls = 0
+            legacyCalls.walk(root.toString(), FileSystemDescription())
+        })
+
+        results.add(benchmark("DirectoryStream + one readAttributes (new)") {
+            ScanEngine.scanTree(activityLog, errorLog, workOrder, root.toString(), FileSystemDescription(), baseline)
+        })
+
+        val callsPerFile = listOf(legacyCalls.calls.toDouble() / fileCount, currentCalls.calls.toDouble() / fileCount)
+        val table = BenchmarkTable("Walk", "ns/file", "file system calls/file", "bytes allocated/file")
+        results.forEachIndexed { index, it ->
+            table.add(it.name, "%.0f".format(it.nanosecondsPerOperation / fileCount), "%.2f".format(callsPerFile[index]), "%.0f".format(it.bytesAllocatedPerOperation / fileCount))
+        }
+
+        table.save(csvPath)
+    } finally {
+        root.deleteRecursively()
+    }
+}
+
+// The walk as it was (less the logging), reusing checksums from the baseline the same way, counting every call that
+// reaches the file system.
+private class LegacyWalk(val workOrder: WorkOrder, val baseline: FileSystemDescription) {
+    var calls = 0L
+
+    fun walk(rootDirectory: String, thisFileSystem: FileSystemDescription) {
+        if (workOrder.excludes(rootDirectory, true)) return
+        calls++
+        if (!File(rootDirectory).isDirectory) return
+        calls++
+        val contents = File(rootDirectory).listFiles() ?: return
+        val subdirectories = ArrayList<String>()
+        contents.forEach {
+            calls++
+            if (it.isFile) {
+                val thisItem = "$rootDirectory${File.separator}${it.name}"
+                if (!workOrder.excludes(thisItem, false)) {
+                    // FileDescription.scan() reads the attributes again, and opens the file if it has to.
+                    val previous = baseline[FileDescription.pathOf(rootDirectory, it.name)]
+                    val thisFilesDescription = FileDescription.scan(rootDirectory, it.name, thisFileSystem.checksumAlgorithm, previous)
+                    calls += if (thisFilesDescription.checksumWasReused) 1 else 2
+                    thisFileSystem.add(thisFilesDescription)
+                }
+            } else {
+                calls++
+                if (it.isDirectory) subdirectories.add(it.toString())
+            }
+        }
+
+        subdirectories.removeIf { workOrder.excludes(it, true) }
+        subdirectories.forEach { walk(it, thisFileSystem) }
+    }
+}
+
+// The walk as ScanEngine.scanDirectory() does it now (less the logging), counting calls the same way.
+private class CurrentWalk(val workOrder: WorkOrder, val baseline: FileSystemDescription) {
+    var calls = 0L
+
+    fun walk(rootDirectory: String, thisFileSystem: FileSystemDescription) {
+        if (workOrder.excludes(rootDirectory, true)) return
+        val subdirectories = ArrayList<String>()
+        calls++
+        Files.newDirectoryStream(Paths.get(rootDirectory)).use { contents ->
+            for (thisEntry in contents) {
+                val fileName = thisEntry.fileName.toString()
+                val thisItem = FileDescription.pathOf(rootDirectory, fileName)
+                calls++
+                val attributes = Files.readAttributes(thisEntry, BasicFileAttributes::class.java)
+                if (attributes.isRegularFile) {
+                    if (!workOrder.excludes(thisItem, false)) {
+                        // FileDescription.scan() only opens the file if it has to; the attributes are already known.
+                        val thisFilesDescription = FileDescription.scan(rootDirectory, fileName, attributes, thisFileSystem.checksumAlgorithm, baseline[thisItem])
+                        if (!thisFilesDescription.checksumWasReused) calls++
+                        thisFileSystem.add(thisFilesDescription)
+                    }
+                } else if (attributes.isDirectory) {
+                    subdirectories.add(thisItem)
+                }
+            }
+        }
+
+        subdirectories.removeIf { workOrder.excludes(it, true) }
+        subdirectories.forEach { walk(it, thisFileSystem) }
+    }
+}
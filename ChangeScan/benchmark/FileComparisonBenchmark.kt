@@ -0,0 +1,121 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan.benchmark
+
+import hoodland.opensource.changescan.DifferenceTypes
+import hoodland.opensource.changescan.FileComparison
+import hoodland.opensource.changescan.FileDescription
+import hoodland.opensource.toolbox.benchmark.BenchmarkResult
+import hoodland.opensource.toolbox.benchmark.BenchmarkTable
+import hoodland.opensource.toolbox.benchmark.benchmark
+import hoodland.opensource.toolbox.getCurrentWorkingDirectory
+import java.io.File
+import java.util.*
+
+// Measures the cost per compared file of working out a FileComparison and then reading it the way
+// FileSystemComparison and ReportGenerator do, against the old list-on-every-read implementation.
+// Arguments (all optional): <number of file pairs> <CSV output path>
+fun main(args: Array<String>) {
+    val pairCount = args.getOrNull(0)?.toIntOrNull() ?: 1_000_000
+    val csvPath = args.getOrNull(1) ?: "${getCurrentWorkingDirectory()}${File.separator}FileComparisonBenchmark.csv"
+
+    // Roughly what a real rescan looks like: most files untouched, some with new timestamps, a few rewritten.
+    val random = Random(42)
+    val originals = Array(pairCount) { FileDescription("/benchmark/${it / 100}", "file$it", random.nextLong(), random.nextInt(1 shl 20).toLong(), 1_000L, 2_000L, 3_000L, null) }
+    val candidates = Array(pairCount) {
+        val original = originals[it]
+        when (random.nextInt(100)) {
+            0 -> FileDescription(original.directory, original.fileName, random.nextLong(), original.size + 1, 1_000L, 4_000L, 4_000L, null)
+            in 1..9 -> FileDescription(original.directory, original.fileName, original.checksum, original.size, 1_000L, 4_000L, 3_000L, null)
+            else -> original
+        }
+    }
+
+    var changed = 0
+    val results = ArrayList<BenchmarkResult>()
+    results.add(benchmark("List rebuilt on every read (old)") {
+        changed = 0
+        for (index in 0 until pairCount) {
+            val comparison = LegacyFileComparison(originals[index], candidates[index])
+            if (comparison.hasDifferences) {
+                if (comparison.contentWasChanged) changed++
+                if (comparison.allDifferencesAsString.isNotEmpty()) changed++
+            }
+        }
+    })
+
+    results.add(benchmark("Flags computed once") {
+        changed = 0
+        for (index in 0 until pairCount) {
+            val comparison = FileComparison(originals[index], candidates[index])
+            if (comparison.hasDifferences) {
+                if (comparison.contentWasChanged) changed++
+                if (comparison.allDifferencesAsString.isNotEmpty()) changed++
+            }
+        }
+    })
+
+    println("$changed changes counted per pass")
+    val table = BenchmarkTable("Benchmark", "ns/file", "bytes allocated/file")
+    results.forEach {
+        table.add(it.name, "%.1f".format(it.nanosecondsPerOperation / pairCount), "%.1f".format(it.bytesAllocatedPerOperation / pairCount))
+    }
+
+    table.save(csvPath)
+}
+
+// How FileComparison worked before its differences were stored.
+private class LegacyFileComparison(val originalFile: FileDescription, val candidateFile: FileDescription) {
+    val differences: ArrayList<DifferenceTypes>
+        get() {
+            val differences = ArrayList<DifferenceTypes>()
+            if (candidateFile.checksum != originalFile.checksum) differences.add(DifferenceTypes.CHECKSUM_DIFFERS)
+            if (candidateFile.size > originalFile.size) differences.add(DifferenceTypes.CANDIDATE_LARGER)
+            if (candidateFile.size < originalFile.size) differences.add(DifferenceTypes.CANDIDATE_SMALLER)
+            if (candidateFile.creationTime > originalFile.creationTime) differences.add(DifferenceTypes.CREATIONTIME_CANDIDATE_MORE_RECENT)
+            if (candidateFile.creationTime < originalFile.creationTime) differences.add(DifferenceTypes.CREATIONTIME_ORIGINAL_MORE_RECENT)
+            if (candidateFile.lastAccessTime > originalFile.lastAccessTime) differences.add(DifferenceTypes.LASTACCESS_CANDIDATE_MORE_RECENT)
+            if (candidateFile.lastAccessTime < originalFile.lastAccessTime) differences.add(DifferenceTypes.LASTACCESS_ORIGINAL_MORE_RECENT)
+            if (candidateFile.lastWriteTime > originalFile.lastWriteTime) differences.add(DifferenceTypes.LASTWRITE_CANDIDATE_MORE_RECENT)
+            if (candidateFile.lastWriteTime < originalFile.lastWriteTime) differences.add(DifferenceTypes.LASTWRITE_ORIGINAL_MORE_RECENT)
+            return differences
+        }
+
+    // The check FileSystemComparison used to make, which built the list just to see whether it was empty.
+    val hasDifferences: Boolean
+        get() = differences.size > 0
+
+    val allDifferencesAsString: String
+        get() {
+            val reportedDifferences = StringBuilder()
+            for (thisDifference in differences) {
+                if (reportedDifferences.length > 0) reportedDifferences.append(", ")
+                reportedDifferences.append(thisDifference.toString())
+            }
+
+            if (reportedDifferences.length < 1) return "(no difference)"
+            return reportedDifferences.toString()
+        }
+
+    val contentWasChanged: Boolean
+        get() = differences.contains(DifferenceTypes.CHECKSUM_DIFFERS) || differences.contains(DifferenceTypes.CANDIDATE_LARGER) || differences.contains(DifferenceTypes.CANDIDATE_SMALLER)
+}
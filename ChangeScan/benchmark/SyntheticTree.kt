@@ -0,0 +1,106 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan.benchmark
+
+import java.io.File
+import java.util.*
+
+/**
+ * SyntheticTree builds a directory tree to benchmark against, the same way every time for the same settings.
+ * Every directory above the deepest level has fanOut subdirectories, and every directory has filesPerDirectory
+ * files. File sizes follow a log-normal distribution around medianFileSize, which gives the usual mix of many
+ * small files and a few big ones. churn() then changes a fraction of the tree the way time does: some files are
+ * rewritten, some deleted, some added, and one directory is renamed.
+ */
+internal class SyntheticTree(
+        val root: File,
+        val depth: Int,
+        val fanOut: Int,
+        val filesPerDirectory: Int,
+        val medianFileSize: Int,
+        val seed: Long = 42L) {
+    private val random = Random(seed)
+
+    // File content is taken from this at a random offset, which is far quicker than generating it per file.
+    private val content = ByteArray(CONTENT_POOL_SIZE).also { Random(seed).nextBytes(it) }
+
+    fun generate() {
+        generate(root, depth)
+    }
+
+    private fun generate(directory: File, levelsBelow: Int) {
+        directory.mkdirs()
+        repeat(filesPerDirectory) { writeFile(File(directory, "file$it.dat")) }
+        if (levelsBelow > 0) repeat(fanOut) { generate(File(directory, "dir$it"), levelsBelow - 1) }
+    }
+
+    private fun writeFile(file: File) {
+        val size = nextFileSize()
+        val offset = random.nextInt(CONTENT_POOL_SIZE)
+        file.outputStream().use { output ->
+            var remaining = size
+            var position = offset
+            while (remaining > 0) {
+                val count = minOf(remaining, CONTENT_POOL_SIZE - position)
+                output.write(content, position, count)
+                remaining -= count
+                position = 0
+            }
+        }
+    }
+
+    private fun nextFileSize(): Int {
+        val size = medianFileSize * Math.exp(SIZE_SPREAD * random.nextGaussian())
+        return minOf(size, medianFileSize * MAXIMUM_SIZE_MULTIPLE.toDouble()).toInt()
+    }
+
+    /**
+     * churn: Changes about churnPercent of the files. Half of those are rewritten, a quarter deleted, and a quarter
+     * worth of new files added. One directory near the top is renamed, so its files show up as moved.
+     *
+     * @return How many files were changed, deleted or added.
+     */
+    fun churn(churnPercent: Double): Int {
+        val files = root.walkTopDown().filter { it.isFile }.sortedBy { it.path }.toList()
+        var changes = 0
+        for (thisFile in files) {
+            val roll = random.nextDouble() * 100.0
+            if (roll >= churnPercent) continue
+
+            changes++
+            when {
+                roll < (churnPercent / 2) -> writeFile(thisFile)
+                roll < (churnPercent * 3 / 4) -> thisFile.delete()
+                else -> writeFile(File(thisFile.parentFile, "new-${thisFile.name}"))
+            }
+        }
+
+        File(root, "dir0").takeIf { it.isDirectory }?.renameTo(File(root, "renamed0"))
+        return changes
+    }
+
+    companion object {
+        private const val CONTENT_POOL_SIZE = 1 shl 22
+        private const val SIZE_SPREAD = 1.5
+        private const val MAXIMUM_SIZE_MULTIPLE = 256
+    }
+}
@@ -0,0 +1,145 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.toolbox.ChecksumAlgorithm
+import java.io.File
+import java.io.IOException
+
+/**
+ * DeltaSource puts a delta baseline back together with its parent, supplying the full snapshot the delta was
+ * saved from in sorted order. Both are streamed as a merge-join, so neither is ever entirely in memory. The
+ * parent may itself be a DeltaSource, which is how a whole chain of deltas is replayed.
+ */
+internal class DeltaSource(private val parent: BaselineSource, private val delta: BaselineReader) : BaselineSource {
+    override val checksumAlgorithm: ChecksumAlgorithm
+        get() = delta.checksumAlgorithm
+
+    override val snapshotId: Long
+        get() = delta.snapshotId
+
+    override val chunking: ChunkingSettings?
+        get() = delta.chunking
+
+    private var nextParent = parent.nextOrNull()
+    private var nextDelta = delta.nextOrNull()
+    private var nextDeltaWasRemoved = delta.entryWasRemoved
+    private var nextResult = advance()
+
+    override fun hasNext(): Boolean {
+        return nextResult != null
+    }
+
+    override fun next(): FileDescription {
+        val result = nextResult ?: throw NoSuchElementException()
+        nextResult = advance()
+        return result
+    }
+
+    private fun advance(): FileDescription? {
+        while (true) {
+            val parentEntry = nextParent
+            val deltaEntry = nextDelta
+            val order = when {
+                (parentEntry == null) && (deltaEntry == null) -> return null
+                parentEntry == null -> 1
+                deltaEntry == null -> -1
+                else -> parentEntry.fullyQualifiedPath.compareTo(deltaEntry.fullyQualifiedPath)
+            }
+
+            // Unchanged since the parent.
+            if (order < 0) {
+                nextParent = parent.nextOrNull()
+                return parentEntry
+            }
+
+            // Added or changed since the parent, unless it's a removal. Either way the delta's entry replaces the parent's.
+            if (order == 0) nextParent = parent.nextOrNull()
+            val wasRemoved = nextDeltaWasRemoved
+            nextDelta = delta.nextOrNull()
+            nextDeltaWasRemoved = delta.entryWasRemoved
+            if (!wasRemoved) return deltaEntry
+        }
+    }
+
+    override fun close() {
+        delta.close()
+        parent.close()
+    }
+}
+
+/**
+ * openSiblingDeltas: Sets up a comparison between two deltas of the same parent without putting either snapshot
+ * back together in full. Only files one of the deltas touched can differ between them, so the parent is streamed
+ * once just to find the original entries of those files.
+ *
+ * @return Sources for the newer and older snapshots holding only the files either delta touched, or null if the
+ * two baselines aren't deltas of the same parent.
+ */
+internal fun openSiblingDeltas(newerPath: String, olderPath: String, openParent: (String) -> BaselineSource): Pair<BaselineSource, BaselineSource>? {
+    val newer = BaselineReader(newerPath)
+    val older = BaselineReader(olderPath)
+    try {
+        val parentPath = newer.parentPath
+        val isSibling = newer.isDelta && older.isDelta && (newer.parentSnapshotId == older.parentSnapshotId) &&
+                (File(parentPath!!).canonicalPath == File(older.parentPath!!).canonicalPath) &&
+                (newer.checksumAlgorithm == older.checksumAlgorithm)
+        if (!isSibling) return null
+
+        val newerChanges = readChanges(newer)
+        val olderChanges = readChanges(older)
+        val touchedPaths = HashSet<String>(newerChanges.keys)
+        touchedPaths.addAll(olderChanges.keys)
+
+        val parentEntries = HashMap<String, FileDescription>()
+        openParent(parentPath!!).use { parent ->
+            if (parent.snapshotId != newer.parentSnapshotId) throw IOException("$newerPath and $olderPath were saved as deltas of $parentPath, but that file has changed since.")
+            parent.forEach { if (touchedPaths.contains(it.fullyQualifiedPath)) parentEntries[it.fullyQualifiedPath] = it }
+        }
+
+        val sortedPaths = touchedPaths.sorted()
+        return Pair(
+                ListSource(sortedPaths.mapNotNull { snapshotEntry(it, newerChanges, parentEntries) }, newer.checksumAlgorithm, newer.snapshotId),
+                ListSource(sortedPaths.mapNotNull { snapshotEntry(it, olderChanges, parentEntries) }, older.checksumAlgorithm, older.snapshotId))
+    } finally {
+        newer.close()
+        older.close()
+    }
+}
+
+// A removal is recorded as a null entry.
+private fun readChanges(delta: BaselineReader): Map<String, FileDescription?> {
+    val result = HashMap<String, FileDescription?>()
+    delta.forEach { result[it.fullyQualifiedPath] = if (delta.entryWasRemoved) null else it }
+    return result
+}
+
+private fun snapshotEntry(path: String, changes: Map<String, FileDescription?>, parentEntries: Map<String, FileDescription>): FileDescription? {
+    return if (changes.containsKey(path)) changes[path] else parentEntries[path]
+}
+
+private class ListSource(entries: List<FileDescription>, override val checksumAlgorithm: ChecksumAlgorithm, override val snapshotId: Long) : BaselineSource {
+    private val iterator = entries.iterator()
+    override fun hasNext() = iterator.hasNext()
+    override fun next() = iterator.next()
+    override fun close() { }
+}
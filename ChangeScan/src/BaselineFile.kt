@@ -0,0 +1,527 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.toolbox.ChecksumAlgorithm
+import java.io.*
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ThreadLocalRandom
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+// Layout of a baseline (.fsc) file, version 1:
+//
+//   "CSFC"  magic number (4 bytes)
+//   varint  format version
+//   byte    flags (bit 0: everything after the totals is deflate-compressed; bit 1: this is a delta)
+//   long    how many files are in the snapshot (8 bytes, big-endian)
+//   long    how many bytes those files hold (8 bytes, big-endian)
+//   string  checksum algorithm name
+//   long    snapshot ID
+//   varint  how files were divided into chunks: 0 if they weren't, otherwise ChunkingMethod's ordinal + 1
+//   varint  the average chunk size in bytes, only if files were divided into chunks
+//   for a delta only...
+//     string  path of the parent baseline, relative to this file's folder if it's in the same folder
+//     long    the parent's snapshot ID
+//   entries, sorted by fully qualified path, each one...
+//     varint  (characters of the directory shared with the previous entry's directory) + 1; 0 ends the file
+//     string  the rest of the directory
+//     string  file name
+//     for a delta only...
+//       byte    1 if the file was removed since the parent, and nothing more about it follows; 0 otherwise
+//     varint  size
+//     zigzag  creation time, in milliseconds since the epoch
+//     zigzag  last access time, as milliseconds after the creation time
+//     zigzag  last write time, as milliseconds after the creation time
+//     long    checksum (8 bytes, big-endian)
+//     varint  characters of the file key shared with the previous entry's file key
+//     string  the rest of the file key (an empty file key means there was none)
+//     string  former directory
+//     varint  number of chunks; 0 if the file wasn't divided
+//     chunks, each one...
+//       varint  length
+//       long    checksum (8 bytes, big-endian)
+//
+// Strings are a varint byte count followed by UTF-8. Varints are unsigned LEB128; zigzag values are
+// varints that were zigzag-encoded first, so small negative numbers stay small.
+//
+// The totals are for the whole snapshot, even in a delta, and are filled in once everything else has been written,
+// so they're zero in a file that was never finished. They're never compressed, so they can be read, and filled in,
+// without going through the entries.
+//
+// A delta only holds the entries that were added, changed or removed since its parent. The snapshot ID stays
+// the same when a baseline is compacted or converted, so deltas of it still find their parent; it changes
+// every time a scan is saved. Chunks are only kept for entries that were divided the way the header says.
+
+internal const val BASELINE_FORMAT_VERSION = 1
+private val BASELINE_MAGIC = byteArrayOf('C'.code.toByte(), 'S'.code.toByte(), 'F'.code.toByte(), 'C'.code.toByte())
+private const val FLAG_COMPRESSED = 1
+private const val FLAG_DELTA = 2
+private const val BASELINE_BUFFER_SIZE = 1 shl 16
+private const val MAPPED_WINDOW_SIZE = 1L shl 26
+private const val TOTALS_SIZE = 16
+
+/**
+ * isBaselineFormat: Checks whether the file starts with the magic number of a ChangeScan binary baseline.
+ * Baselines saved by older versions of ChangeScan use Java serialization instead.
+ */
+internal fun isBaselineFormat(filePath: String): Boolean {
+    DataInputStream(FileInputStream(filePath)).use { input ->
+        val magic = ByteArray(BASELINE_MAGIC.size)
+        return try {
+            input.readFully(magic)
+            magic.contentEquals(BASELINE_MAGIC)
+        } catch (dontCare: EOFException) {
+            false
+        }
+    }
+}
+
+/**
+ * newSnapshotId: A fresh, random snapshot ID, for a baseline holding a scan that hasn't been saved before.
+ */
+internal fun newSnapshotId(): Long {
+    var result = 0L
+    while (result == 0L) result = ThreadLocalRandom.current().nextLong()
+    return result
+}
+
+/**
+ * BaselineWriter writes FileDescriptions to a baseline file one at a time. They must be supplied sorted by
+ * fully qualified path; each entry only stores how its directory differs from the previous entry's.
+ *
+ * If parentPath is supplied the file is a delta of that baseline, and writeRemoved() records the files that
+ * are no longer there. The files left out of a delta because they're unchanged are still part of the snapshot,
+ * so they're passed to countUnchanged() to be included in its totals. Chunks are only written for entries whose chunks were made with the chunking settings
+ * supplied; other entries are written as if they hadn't been divided.
+ */
+internal class BaselineWriter(
+        private val filePath: String,
+        checksumAlgorithm: ChecksumAlgorithm,
+        compress: Boolean = false,
+        snapshotId: Long = newSnapshotId(),
+        parentPath: String? = null,
+        parentSnapshotId: Long = 0L,
+        private val chunking: ChunkingSettings? = null) : Closeable {
+    private val isDelta = parentPath != null
+    private val output: BaselineOutputStream
+    private var previousDirectory = ""
+    private var previousFileKey = ""
+    private var previousPath: String? = null
+    private val totalsOffset: Long
+    private var snapshotFiles = 0L
+    private var snapshotBytes = 0L
+
+    init {
+        val prefix = ByteArrayOutputStream()
+        prefix.write(BASELINE_MAGIC)
+        writeVarLong(prefix, BASELINE_FORMAT_VERSION.toLong())
+        prefix.write((if (compress) FLAG_COMPRESSED else 0) or (if (isDelta) FLAG_DELTA else 0))
+        totalsOffset = prefix.size().toLong()
+        prefix.write(ByteArray(TOTALS_SIZE))
+
+        val fileStream = BufferedOutputStream(FileOutputStream(filePath), BASELINE_BUFFER_SIZE)
+        prefix.writeTo(fileStream)
+
+        output = if (compress) {
+            BaselineOutputStream(BufferedOutputStream(DeflaterOutputStream(fileStream), BASELINE_BUFFER_SIZE))
+        } else {
+            BaselineOutputStream(fileStream)
+        }
+
+        output.writeString(checksumAlgorithm.name)
+        output.writeLong(snapshotId)
+        if (chunking == null) {
+            output.writeVarLong(0)
+        } else {
+            output.writeVarLong(chunking.method.ordinal + 1L)
+            output.writeVarLong(chunking.averageChunkSize.toLong())
+        }
+
+        if (parentPath != null) {
+            output.writeString(relativeParentPath(filePath, parentPath))
+            output.writeLong(parentSnapshotId)
+        }
+    }
+
+    fun write(thisFileDescription: FileDescription) {
+        writePath(thisFileDescription.directory, thisFileDescription.fileName)
+        if (isDelta) output.write(0)
+        countUnchanged(thisFileDescription)
+
+        output.writeVarLong(thisFileDescription.size)
+        output.writeZigZag(thisFileDescription.creationTime)
+        output.writeZigZag(thisFileDescription.lastAccessTime - thisFileDescription.creationTime)
+        output.writeZigZag(thisFileDescription.lastWriteTime - thisFileDescription.creationTime)
+        output.writeLong(thisFileDescription.checksum)
+
+        val fileKey = thisFileDescription.fileKey ?: ""
+        val sharedFileKey = sharedPrefixLength(previousFileKey, fileKey)
+        output.writeVarLong(sharedFileKey.toLong())
+        output.writeString(fileKey.substring(sharedFileKey))
+        previousFileKey = fileKey
+
+        output.writeString(thisFileDescription.formerDirectory)
+
+        val chunks = thisFileDescription.chunks
+        if ((chunks == null) || (chunks.settings != chunking)) {
+            output.writeVarLong(0)
+        } else {
+            output.writeVarLong(chunks.count.toLong())
+            for (index in 0 until chunks.count) {
+                output.writeVarLong(chunks.lengths[index].toLong())
+                output.writeLong(chunks.checksums[index])
+            }
+        }
+    }
+
+    /**
+     * countUnchanged: For a delta, counts a file that's in the snapshot but left out because it's the same as in
+     * the parent.
+     */
+    fun countUnchanged(thisFileDescription: FileDescription) {
+        snapshotFiles++
+        snapshotBytes += thisFileDescription.size
+    }
+
+    /**
+     * writeRemoved: For a delta, records that a file in the parent baseline is no longer there.
+     */
+    fun writeRemoved(directory: String, fileName: String) {
+        if (!isDelta) throw IllegalStateException("Only a delta baseline can record a removed file.")
+        writePath(directory, fileName)
+        output.write(1)
+    }
+
+    private fun writePath(directory: String, fileName: String) {
+        val path = FileDescription.pathOf(directory, fileName)
+        previousPath?.let {
+            if (path <= it) throw IllegalStateException("Baseline entries must be written in sorted order: $path came after $it")
+        }
+        previousPath = path
+
+        val sharedDirectory = sharedPrefixLength(previousDirectory, directory)
+        output.writeVarLong(sharedDirectory + 1L)
+        output.writeString(directory.substring(sharedDirectory))
+        output.writeString(fileName)
+        previousDirectory = directory
+    }
+
+    override fun close() {
+        output.writeVarLong(0)
+        output.close()
+
+        RandomAccessFile(filePath, "rw").use {
+            it.seek(totalsOffset)
+            it.writeLong(snapshotFiles)
+            it.writeLong(snapshotBytes)
+        }
+    }
+}
+
+// Keeps the link between a delta and its parent working when a folder of baselines is moved as a whole.
+private fun relativeParentPath(filePath: String, parentPath: String): String {
+    val folder = File(filePath).absoluteFile.parentFile
+    val parent = File(parentPath).absoluteFile
+    return if (parent.parentFile == folder) parent.name else parent.path
+}
+
+/**
+ * BaselineSource supplies FileDescriptions one at a time, sorted by fully qualified path. FileSystemComparison
+ * works from two of these, so a baseline can be compared without ever being entirely in memory.
+ */
+internal interface BaselineSource : Iterator<FileDescription>, Closeable {
+    val checksumAlgorithm: ChecksumAlgorithm
+
+    // Identifies the snapshot, so a delta can tell whether it's being applied to the right parent. Zero if unknown.
+    val snapshotId: Long
+
+    // How the newest part of the snapshot was divided into chunks, for saving it again. Null if it wasn't, or if unknown.
+    val chunking: ChunkingSettings?
+        get() = null
+}
+
+/**
+ * BaselineReader reads a baseline file back one FileDescription at a time, in the sorted order it was written.
+ * Consecutive entries in the same directory share a single directory String.
+ *
+ * A delta is read the same way, but its entries are only the changes since its parent, and some of them are
+ * removals: after next() returns one of those, entryWasRemoved is true and the FileDescription only has a path.
+ * FileSystemDescription.openBaseline() takes care of combining a delta with its parent.
+ *
+ * If mapped is true the file is memory-mapped rather than read through a buffer. That's the better choice when
+ * streaming a large baseline, but on some platforms a mapped file can't be overwritten until the mapping is
+ * garbage collected, so don't map a baseline that might be saved over during the same run.
+ */
+internal class BaselineReader(filePath: String, mapped: Boolean = false) : BaselineSource {
+    private val input: BaselineInputStream
+    private var previousDirectory = ""
+    private var previousFileKey = ""
+    private var nextDirectoryTag = 0L
+
+    override val checksumAlgorithm: ChecksumAlgorithm
+    override val snapshotId: Long
+
+    // The files in the whole snapshot, and the bytes they hold, even for a delta. Zero if the file was never finished.
+    val snapshotFiles: Long
+    val snapshotBytes: Long
+
+    // Attached to every entry's chunks as they're read. Null if the files weren't divided into chunks.
+    override val chunking: ChunkingSettings?
+
+    // Null unless this baseline is a delta. A relative parent path is relative to this file's folder.
+    val parentPath: String?
+    val parentSnapshotId: Long
+
+    val isDelta: Boolean
+        get() = parentPath != null
+
+    var entryWasRemoved = false
+        private set
+
+    init {
+        val fileStream = if (mapped) {
+            MappedFileInputStream(filePath)
+        } else {
+            BufferedInputStream(FileInputStream(filePath), BASELINE_BUFFER_SIZE)
+        }
+        val magic = ByteArray(BASELINE_MAGIC.size)
+        if ((fileStream.read(magic) != magic.size) || !magic.contentEquals(BASELINE_MAGIC)) {
+            fileStream.close()
+            throw IOException("$filePath is not a ChangeScan baseline file.")
+        }
+
+        val formatVersion = readVarLong(fileStream).toInt()
+        if (formatVersion > BASELINE_FORMAT_VERSION) {
+            fileStream.close()
+            throw IOException("$filePath was saved by a newer version of ChangeScan (baseline format $formatVersion).")
+        }
+
+        val flags = fileStream.read()
+        val totals = DataInputStream(fileStream)
+        snapshotFiles = totals.readLong()
+        snapshotBytes = totals.readLong()
+
+        input = if ((flags and FLAG_COMPRESSED) != 0) {
+            BaselineInputStream(BufferedInputStream(InflaterInputStream(fileStream), BASELINE_BUFFER_SIZE))
+        } else {
+            BaselineInputStream(fileStream)
+        }
+
+        val algorithmName = input.readString()
+        checksumAlgorithm = ChecksumAlgorithm.values().firstOrNull { it.name == algorithmName }
+                ?: throw IOException("$filePath uses an unknown checksum algorithm: $algorithmName")
+
+        snapshotId = input.readLong()
+        chunking = readChunking(filePath)
+        if ((flags and FLAG_DELTA) != 0) {
+            val storedParentPath = input.readString()
+            parentPath = if (File(storedParentPath).isAbsolute) storedParentPath else File(File(filePath).absoluteFile.parentFile, storedParentPath).path
+            parentSnapshotId = input.readLong()
+        } else {
+            parentPath = null
+            parentSnapshotId = 0L
+        }
+
+        nextDirectoryTag = input.readVarLong()
+    }
+
+    private fun readChunking(filePath: String): ChunkingSettings? {
+        val method = input.readVarLong().toInt()
+        if (method == 0) return null
+        val chunkingMethod = ChunkingMethod.values().getOrNull(method - 1) ?: throw IOException("$filePath uses an unknown chunking method: $method")
+        return ChunkingSettings(chunkingMethod, input.readVarLong().toInt())
+    }
+
+    override fun hasNext(): Boolean {
+        return nextDirectoryTag != 0L
+    }
+
+    override fun next(): FileDescription {
+        if (!hasNext()) throw NoSuchElementException()
+
+        val sharedDirectory = (nextDirectoryTag - 1).toInt()
+        val directorySuffix = input.readString()
+        val directory = if ((sharedDirectory == previousDirectory.length) && directorySuffix.isEmpty()) {
+            previousDirectory
+        } else {
+            previousDirectory.substring(0, sharedDirectory) + directorySuffix
+        }
+        previousDirectory = directory
+
+        val fileName = input.readString()
+        entryWasRemoved = isDelta && (input.read() == 1)
+        if (entryWasRemoved) {
+            nextDirectoryTag = input.readVarLong()
+            return FileDescription(directory, fileName, 0L, 0L, 0L, 0L, 0L, null)
+        }
+
+        val size = input.readVarLong()
+        val creationTime = input.readZigZag()
+        val lastAccessTime = creationTime + input.readZigZag()
+        val lastWriteTime = creationTime + input.readZigZag()
+        val checksum = input.readLong()
+
+        val sharedFileKey = input.readVarLong().toInt()
+        val fileKey = previousFileKey.substring(0, sharedFileKey) + input.readString()
+        previousFileKey = fileKey
+
+        val formerDirectory = input.readString()
+
+        var chunks: FileChunks? = null
+        val chunkCount = input.readVarLong().toInt()
+        if (chunkCount > 0) {
+            val settings = chunking ?: throw IOException("${FileDescription.pathOf(directory, fileName)} has chunks, but the baseline says files weren't divided into chunks.")
+            val lengths = IntArray(chunkCount)
+            val checksums = LongArray(chunkCount)
+            for (index in 0 until chunkCount) {
+                lengths[index] = input.readVarLong().toInt()
+                checksums[index] = input.readLong()
+            }
+
+            chunks = FileChunks(lengths, checksums, settings)
+        }
+
+        val result = FileDescription(directory, fileName, checksum, size, creationTime, lastAccessTime, lastWriteTime, fileKey.ifEmpty { null }, chunks)
+        result.formerDirectory = formerDirectory
+
+        nextDirectoryTag = input.readVarLong()
+        return result
+    }
+
+    override fun close() {
+        input.close()
+    }
+}
+
+private fun sharedPrefixLength(first: String, second: String): Int {
+    val limit = minOf(first.length, second.length)
+    var index = 0
+    while ((index < limit) && (first[index] == second[index])) index++
+
+    // Never split a surrogate pair between the shared prefix and the stored suffix.
+    if ((index > 0) && Character.isHighSurrogate(first[index - 1])) index--
+    return index
+}
+
+private fun writeVarLong(output: OutputStream, value: Long) {
+    var remaining = value
+    while ((remaining and 0x7FL.inv()) != 0L) {
+        output.write(((remaining and 0x7FL) or 0x80L).toInt())
+        remaining = remaining ushr 7
+    }
+    output.write(remaining.toInt())
+}
+
+private fun readVarLong(input: InputStream): Long {
+    var result = 0L
+    var shift = 0
+    while (true) {
+        val thisByte = input.read()
+        if (thisByte < 0) throw EOFException("Baseline file ended unexpectedly.")
+        result = result or ((thisByte and 0x7F).toLong() shl shift)
+        if ((thisByte and 0x80) == 0) return result
+        shift += 7
+    }
+}
+
+// Reads a file through a series of read-only memory mappings, one window at a time, so files larger than a
+// single mapping can allow are still fine.
+private class MappedFileInputStream(filePath: String) : InputStream() {
+    private val channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)
+    private val fileSize = channel.size()
+    private var windowStart = 0L
+    private var window: MappedByteBuffer = mapWindow(0)
+
+    private fun mapWindow(start: Long): MappedByteBuffer {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, minOf(MAPPED_WINDOW_SIZE, fileSize - start))
+    }
+
+    private fun hasRemaining(): Boolean {
+        if (window.hasRemaining()) return true
+
+        val nextWindowStart = windowStart + window.capacity()
+        if (nextWindowStart >= fileSize) return false
+        windowStart = nextWindowStart
+        window = mapWindow(nextWindowStart)
+        return true
+    }
+
+    override fun read(): Int {
+        return if (hasRemaining()) window.get().toInt() and 0xFF else -1
+    }
+
+    override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) return 0
+        if (!hasRemaining()) return -1
+
+        val count = minOf(length, window.remaining())
+        window.get(buffer, offset, count)
+        return count
+    }
+
+    override fun available(): Int {
+        return minOf(Int.MAX_VALUE.toLong(), fileSize - windowStart - window.position()).toInt()
+    }
+
+    override fun close() {
+        channel.close()
+    }
+}
+
+private class BaselineOutputStream(output: OutputStream) : DataOutputStream(output) {
+    fun writeVarLong(value: Long) {
+        writeVarLong(this, value)
+    }
+
+    fun writeZigZag(value: Long) {
+        writeVarLong((value shl 1) xor (value shr 63))
+    }
+
+    fun writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeVarLong(bytes.size.toLong())
+        write(bytes)
+    }
+}
+
+private class BaselineInputStream(input: InputStream) : DataInputStream(input) {
+    fun readVarLong(): Long {
+        return readVarLong(this)
+    }
+
+    fun readZigZag(): Long {
+        val encoded = readVarLong()
+        return (encoded ushr 1) xor -(encoded and 1L)
+    }
+
+    fun readString(): String {
+        val length = readVarLong().toInt()
+        if (length == 0) return ""
+        val bytes = ByteArray(length)
+        readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
@@ -0,0 +1,196 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import java.io.BufferedWriter
+import java.io.Closeable
+import java.io.FileOutputStream
+import java.io.OutputStreamWriter
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+
+/**
+ * ChangeRecordWriter writes one record per difference, as NDJSON (one JSON object per line) or CSV, while a
+ * FileSystemComparison runs. Content and timestamp changes are written as soon as they're found; new, missing
+ * and moved files once move detection has sorted them out at the end. Nothing is kept after it's written, and
+ * the file is flushed at least once a second, so another program can follow along as it grows.
+ *
+ * Every record has the same fields: category, path, former directory (for a moved file), both sizes and the
+ * difference between them, both sets of timestamps in ISO-8601 UTC, and the DifferenceTypes that apply, both
+ * as FileComparison.differenceFlags and by name. Fields that don't apply to a category are null (NDJSON) or
+ * empty (CSV).
+ */
+internal class ChangeRecordWriter(filePath: String, private val format: RecordFormat) : Closeable {
+    private val output = BufferedWriter(OutputStreamWriter(FileOutputStream(filePath), Charsets.UTF_8), RECORD_BUFFER_SIZE)
+    private val line = StringBuilder()
+    private var nextFlush = System.nanoTime() + FLUSH_INTERVAL
+
+    var recordsWritten = 0L
+        private set
+
+    init {
+        if (format == RecordFormat.CSV) {
+            output.write(FIELD_NAMES.joinToString(","))
+            output.newLine()
+        }
+    }
+
+    fun added(candidateFile: FileDescription) {
+        write("new", candidateFile.fullyQualifiedPath, null, null, candidateFile, 0)
+    }
+
+    fun removed(originalFile: FileDescription) {
+        write("missing", originalFile.fullyQualifiedPath, null, originalFile, null, 0)
+    }
+
+    fun moved(originalFile: FileDescription, candidateFile: FileDescription) {
+        write("moved", candidateFile.fullyQualifiedPath, originalFile.directory, originalFile, candidateFile, 0)
+    }
+
+    fun changed(comparison: FileComparison) {
+        val category = if (comparison.contentWasChanged) "content" else "timestamp"
+        write(category, comparison.fullyQualifiedPath, null, comparison.originalFile, comparison.candidateFile, comparison.differenceFlags)
+    }
+
+    private fun write(category: String, path: String, formerDirectory: String?, originalFile: FileDescription?, candidateFile: FileDescription?, differenceFlags: Int) {
+        val sizeDelta = if ((originalFile != null) && (candidateFile != null)) candidateFile.size - originalFile.size else null
+        val differences = DIFFERENCE_TYPES.filter { (differenceFlags and it.flag) != 0 }.map { it.name }
+
+        line.setLength(0)
+        val fields = arrayOf<Any?>(
+                category,
+                path,
+                formerDirectory,
+                originalFile?.size,
+                candidateFile?.size,
+                sizeDelta,
+                originalFile?.let { timestamp(it.creationTime) },
+                originalFile?.let { timestamp(it.lastAccessTime) },
+                originalFile?.let { timestamp(it.lastWriteTime) },
+                candidateFile?.let { timestamp(it.creationTime) },
+                candidateFile?.let { timestamp(it.lastAccessTime) },
+                candidateFile?.let { timestamp(it.lastWriteTime) },
+                differenceFlags,
+                differences)
+
+        if (format == RecordFormat.NDJSON) {
+            line.append('{')
+            fields.forEachIndexed { index, value ->
+                if (index > 0) line.append(',')
+                appendJsonString(FIELD_NAMES[index])
+                line.append(':')
+                appendJsonValue(value)
+            }
+            line.append('}')
+        } else {
+            fields.forEachIndexed { index, value ->
+                if (index > 0) line.append(',')
+                appendCsvValue(value)
+            }
+        }
+
+        output.append(line)
+        output.newLine()
+        recordsWritten++
+
+        val now = System.nanoTime()
+        if (now >= nextFlush) {
+            output.flush()
+            nextFlush = now + FLUSH_INTERVAL
+        }
+    }
+
+    private fun appendJsonValue(value: Any?) {
+        when (value) {
+            null -> line.append("null")
+            is String -> appendJsonString(value)
+            is List<*> -> {
+                line.append('[')
+                value.forEachIndexed { index, item ->
+                    if (index > 0) line.append(',')
+                    appendJsonString(item.toString())
+                }
+                line.append(']')
+            }
+            else -> line.append(value)
+        }
+    }
+
+    private fun appendJsonString(value: String) {
+        line.append('"')
+        for (thisChar in value) {
+            when (thisChar) {
+                '"' -> line.append("\\\"")
+                '\\' -> line.append("\\\\")
+                '\n' -> line.append("\\n")
+                '\r' -> line.append("\\r")
+                '\t' -> line.append("\\t")
+                else -> if (thisChar < ' ') line.append(String.format("\\u%04x", thisChar.code)) else line.append(thisChar)
+            }
+        }
+        line.append('"')
+    }
+
+    // RFC 4180: a field is quoted if it has to be, and quotes inside it are doubled.
+    private fun appendCsvValue(value: Any?) {
+        val text = when (value) {
+            null -> return
+            is List<*> -> value.joinToString("|")
+            else -> value.toString()
+        }
+
+        if (text.none { (it == ',') || (it == '"') || (it == '\n') || (it == '\r') }) {
+            line.append(text)
+        } else {
+            line.append('"').append(text.replace("\"", "\"\"")).append('"')
+        }
+    }
+
+    private fun timestamp(millisecondsSinceEpoch: Long): String {
+        return Instant.ofEpochMilli(millisecondsSinceEpoch).toString()
+    }
+
+    override fun close() {
+        output.close()
+    }
+
+    companion object {
+        private const val RECORD_BUFFER_SIZE = 1 shl 16
+        private val FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1)
+        private val DIFFERENCE_TYPES = DifferenceTypes.values()
+        private val FIELD_NAMES = arrayOf(
+                "category",
+                "path",
+                "formerDirectory",
+                "originalSize",
+                "candidateSize",
+                "sizeDelta",
+                "originalCreationTime",
+                "originalLastAccessTime",
+                "originalLastWriteTime",
+                "candidateCreationTime",
+                "candidateLastAccessTime",
+                "candidateLastWriteTime",
+                "differenceFlags",
+                "differences")
+    }
+}
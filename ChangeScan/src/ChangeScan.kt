@@ -25,6 +25,7 @@ import hoodland.opensource.boolog.Boolog
 import hoodland.opensource.boolog.showThrowable
 import hoodland.opensource.toolbox.COPYRIGHT
 import hoodland.opensource.toolbox.UNSET_STRING
+import hoodland.opensource.toolbox.getCurrentWorkingDirectory
 import hoodland.opensource.toolbox.stdout
 import java.io.*
 
@@ -47,6 +48,9 @@ fun main(args: Array<String>) {
 
     if (args[0].uppercase() == "LICENSE") showLicense()
     if ((args[0].uppercase() == "EXAMPLES") || (args[0].uppercase() == "EXAMPLE"))showExamples()
+    if (args[0].uppercase() == "CONVERT") convertBaseline(args)
+    if (args[0].uppercase() == "COMPACT") compactBaseline(args)
+    if (args[0].uppercase() == "DUPLICATES") findDuplicates(args)
 
     val workOrder = interpretArgs(args)
     val errorLog = Boolog("Errors Encountered During Scanning")
@@ -56,12 +60,21 @@ fun main(args: Array<String>) {
         activityLogPath = File(workOrder.logPath).printWriter()
     }
 
-    val activityLog = Boolog("ChangeScan $COPYRIGHT 2020, 2023 William Hood", stdout, activityLogPath)
-    val report = ReportGenerator(workOrder.reportPath)
+    // A scan can run for hours, so the activity log is written as it goes. Scanning threads only queue their log
+    // entries; formatting and writing them is left to the log's own thread.
+    val activityLog = Boolog("ChangeScan $COPYRIGHT 2020, 2023 William Hood", stdout, activityLogPath).streamHTML().writeAsynchronously()
+    val report = ReportGenerator(workOrder.reportPath, workOrder.reportPageSize)
 
     try {
         workOrder.describeTo(activityLog)
-        ScanEngine.run(activityLog, errorLog, workOrder, report)
+        val scannedFileSystem = ScanEngine.run(activityLog, errorLog, workOrder, report)
+
+        if (workOrder.watchRequested && (scannedFileSystem != null)) {
+            // The report is about the scan the watch starts from, so it's finished now rather than when the program ends.
+            report.conclude(errorLog)
+            FileSystemWatcher(activityLog, workOrder, scannedFileSystem).watch()
+        }
+
         activityLog.info("Program completed.")
     } catch (thisException: Throwable) {
         errorLog.showThrowable(thisException)
@@ -71,3 +84,90 @@ fun main(args: Array<String>) {
         activityLog.conclude()
     }
 }
+
+// Loads a baseline in any format ChangeScan can read and saves it again in the current one. It's still the same
+// snapshot, so deltas of the old baseline can use the new one as their parent.
+private fun convertBaseline(args: Array<String>) {
+    if ((args.size < 3) || (args.size > 4) || ((args.size == 4) && (args[3].uppercase() != "COMPRESS"))) {
+        System.out.println("⛔ CONVERT must be followed by the old and new baseline filenames, and optionally COMPRESS")
+        showUsage()
+    }
+
+    try {
+        System.out.println("Converting ${args[1]} to ${args[2]}")
+        FileSystemDescription.loadInstance(args[1]).save(args[2], args.size == 4, keepSnapshotId = true)
+    } catch (thisException: Throwable) {
+        System.out.println("⛔ Unable to convert ${args[1]}: ${thisException.message}")
+    }
+
+    System.exit(0)
+}
+
+// Replays a delta baseline, along with every parent it depends on, and saves the result as a full baseline. Without
+// a new filename the delta is replaced. Deltas saved from it still work, since it's still the same snapshot.
+private fun compactBaseline(args: Array<String>) {
+    val compress = args.last().uppercase() == "COMPRESS"
+    val filenames = if (compress) args.size - 2 else args.size - 1
+    if ((filenames < 1) || (filenames > 2)) {
+        System.out.println("⛔ COMPACT must be followed by a baseline filename, optionally a new filename, and optionally COMPRESS")
+        showUsage()
+    }
+
+    val newPath = if (filenames == 2) args[2] else args[1]
+    try {
+        System.out.println("Compacting ${args[1]} into $newPath")
+        FileSystemDescription.loadInstance(args[1]).save(newPath, compress, keepSnapshotId = true)
+    } catch (thisException: Throwable) {
+        System.out.println("⛔ Unable to compact ${args[1]}: ${thisException.message}")
+    }
+
+    System.exit(0)
+}
+
+// Finds files with the same content in a saved baseline, without scanning. Arguments after the baseline filename
+// come in pairs: REPORT <filename>, VERIFY <HASH|BYTES> and MINIMUM <bytes>.
+private fun findDuplicates(args: Array<String>) {
+    if ((args.size < 2) || (args.size % 2 != 0)) {
+        System.out.println("⛔ DUPLICATES must be followed by a baseline filename, and optionally REPORT <filename>, VERIFY <HASH|BYTES> and MINIMUM <bytes>")
+        showUsage()
+    }
+
+    var reportPath = getCurrentWorkingDirectory() + File.separator + DEFAULT_DUPLICATES_REPORT_FILE_NAME
+    var verification: DuplicateVerification? = null
+    var minimumSize = 1L
+    for (index in 2 until args.size step 2) {
+        when (args[index].uppercase()) {
+            "REPORT" -> reportPath = if (args[index + 1].endsWith(".html")) args[index + 1] else "${args[index + 1]}.html"
+            "VERIFY" -> verification = DuplicateVerification.values().firstOrNull { it.name == args[index + 1].uppercase() } ?: run {
+                System.out.println("⛔ VERIFY must be followed by HASH or BYTES")
+                showUsage()
+                null
+            }
+            "MINIMUM" -> minimumSize = args[index + 1].toLongOrNull()?.takeIf { it >= 1 } ?: run {
+                System.out.println("⛔ MINIMUM must be followed by a whole number of bytes, 1 or more")
+                showUsage()
+                1L
+            }
+            else -> {
+                System.out.println("⛔ Not understood after DUPLICATES: ${args[index]}")
+                showUsage()
+            }
+        }
+    }
+
+    val errorLog = Boolog("Errors Encountered While Finding Duplicates")
+    val report = ReportGenerator(reportPath)
+    try {
+        System.out.println("Finding duplicates in ${args[1]}" + (verification?.let { ", confirming them by $it" } ?: ""))
+        val finder = DuplicateFinder(args[1], minimumSize, verification, File(reportPath).absoluteFile.parentFile)
+        report.prepareDuplicates(finder)
+        System.out.println("Found ${finder.groups} groups of duplicates among ${finder.filesExamined} files (${finder.candidates} sharing a size); ${"%,d".format(finder.reclaimableBytes)} bytes reclaimable. Report: $reportPath")
+    } catch (thisException: Throwable) {
+        errorLog.showThrowable(thisException)
+        System.out.println("⛔ Unable to find duplicates in ${args[1]}: ${thisException.message}")
+    } finally {
+        report.conclude(errorLog)
+    }
+
+    System.exit(0)
+}
@@ -0,0 +1,142 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.boolog.Boolog
+import java.io.File
+import java.nio.file.FileStore
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * DeviceScheduler scans several roots at once, one group per storage device. Roots are grouped by the FileStore
+ * they're on, and each group gets its own limit on how many threads may read from it: HDDTHREADS (1 by default)
+ * for a spinning disk, where more than one reader only makes the heads thrash, and THREADS for anything else.
+ * The groups are scanned at the same time, all into the one FileSystemDescription.
+ */
+internal class DeviceScheduler(
+        private val activityLog: Boolog,
+        private val errorLog: Boolog?,
+        private val workOrder: WorkOrder,
+        private val thisFileSystem: FileSystemDescription,
+        private val previousFileSystem: FileSystemDescription? = null) {
+
+    fun scan(rootDirectories: List<String>) {
+        val groups = groupByDevice(distinctRoots(rootDirectories))
+        groups.filter { (groups.size > 1) || (it.readers < workOrder.threads) }.forEach {
+            activityLog.info("${it.name}: ${it.description}, ${it.readers} ${if (it.readers == 1) "thread" else "threads"} for ${it.roots.joinToString()}", "💽")
+        }
+
+        if (groups.size == 1) {
+            scanGroup(groups[0])
+            return
+        }
+
+        val executor = Executors.newFixedThreadPool(groups.size)
+        try {
+            // get() passes along anything a group's scan threw.
+            executor.invokeAll(groups.map { Callable { scanGroup(it) } }).forEach { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun scanGroup(group: DeviceGroup) {
+        if (group.readers > 1) {
+            ParallelScanner(activityLog, errorLog, workOrder, thisFileSystem, previousFileSystem, group.readers).scan(group.roots)
+        } else {
+            group.roots.forEach { ScanEngine.scanTree(activityLog, errorLog, workOrder, it, thisFileSystem, previousFileSystem) }
+        }
+    }
+
+    // A root inside another root would be scanned twice, so only the outer one is kept.
+    private fun distinctRoots(rootDirectories: List<String>): List<String> {
+        val result = ArrayList<String>()
+        for (thisRoot in rootDirectories.distinct().sortedBy { it.length }) {
+            val enclosingRoot = result.firstOrNull { thisRoot.startsWith(if (it.endsWith(File.separator)) it else "$it${File.separator}") }
+            if (enclosingRoot == null) {
+                result.add(thisRoot)
+            } else {
+                activityLog.info("$thisRoot is already part of $enclosingRoot. It won't be scanned separately.", "⚠️")
+            }
+        }
+
+        return result
+    }
+
+    private fun groupByDevice(rootDirectories: List<String>): List<DeviceGroup> {
+        val result = LinkedHashMap<FileStore?, DeviceGroup>()
+        for (thisRoot in rootDirectories) {
+            // A root that can't be looked at gets a group of its own; scanning it will report the problem.
+            val store = try {
+                Files.getFileStore(Paths.get(thisRoot))
+            } catch (dontCare: Exception) {
+                null
+            }
+
+            result.getOrPut(store) {
+                val rotational = store?.let { isRotational(it) }
+                val readers = if (rotational == true) workOrder.spinningDiskThreads else workOrder.threads
+                DeviceGroup(store?.name() ?: thisRoot, rotational, readers)
+            }.roots.add(thisRoot)
+        }
+
+        return result.values.toList()
+    }
+
+    private class DeviceGroup(val name: String, val rotational: Boolean?, val readers: Int) {
+        val roots = ArrayList<String>()
+
+        val description: String
+            get() = when (rotational) {
+                true -> "spinning disk"
+                false -> "solid state"
+                null -> "unknown kind of device"
+            }
+    }
+
+    companion object {
+        /**
+         * isRotational: Works out whether a FileStore is on a spinning disk. Only Linux says so, in sysfs; the
+         * queue settings belong to the whole disk, so for a partition they're found one level up.
+         *
+         * @return True for a spinning disk, false for solid state, or null if it couldn't be told.
+         */
+        fun isRotational(store: FileStore): Boolean? {
+            return try {
+                val device = Paths.get("/sys/class/block", store.name().substringAfterLast('/'))
+                if (!Files.exists(device)) return null
+
+                val devicePath: Path = device.toRealPath()
+                listOf(devicePath, devicePath.parent)
+                        .map { it.resolve("queue").resolve("rotational") }
+                        .firstOrNull { Files.isReadable(it) }
+                        ?.let { Files.readAllLines(it).firstOrNull()?.trim() == "1" }
+            } catch (dontCare: Exception) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import java.io.*
+import java.nio.file.Files
+import java.security.MessageDigest
+import java.util.*
+
+/**
+ * DuplicateGroup is a set of files with the same content, as far as DuplicateFinder could tell. Each file is given
+ * by its paths; a file that's hard-linked has more than one, but it's still only one file. Keeping one of the files
+ * and removing the rest would free reclaimableBytes.
+ */
+internal class DuplicateGroup(val size: Long, val checksum: Long, val files: List<List<String>>, val verified: Boolean) {
+    val reclaimableBytes: Long
+        get() = size * (files.size - 1)
+}
+
+/**
+ * DuplicateFinder finds files with the same content in a saved baseline, without scanning anything. The files are
+ * sorted by size and checksum, so any that could be duplicates end up next to each other. Paths with the same file
+ * key are hard links to one file, so they're kept together as that file rather than counted as copies of it. With
+ * a verification, the files of each group are then read from disk to confirm it, and any that turn out to differ
+ * are split off into groups of their own.
+ *
+ * The baseline is streamed once. If there are more than candidatesInMemory files they're sorted a run at a time in
+ * temporary files in workFolder and merged back together, and the files sharing a size are counted as they come
+ * out of the merge, so nothing is kept per file or per size.
+ */
+internal class DuplicateFinder(
+        private val baselinePath: String,
+        private val minimumSize: Long = 1,
+        private val verification: DuplicateVerification? = null,
+        private val workFolder: File = File(System.getProperty("java.io.tmpdir")),
+        private val candidatesInMemory: Int = DEFAULT_SPILL_FILES) {
+    var filesExamined = 0L
+        private set
+
+    // Files that share their size with at least one other, before checksums are compared.
+    var candidates = 0L
+        private set
+    var groups = 0L
+        private set
+    var duplicateFiles = 0L
+        private set
+    var reclaimableBytes = 0L
+        private set
+
+    // Files a verification couldn't read. They're left out of the groups.
+    var unreadableFiles = 0L
+        private set
+
+    /**
+     * find: Supplies each group of duplicates, largest files first.
+     */
+    @Throws(IOException::class, ClassNotFoundException::class)
+    fun find(onGroup: (DuplicateGroup) -> Unit) {
+        val runs = ArrayList<File>()
+        try {
+            val inMemory = ArrayList<Candidate>()
+            FileSystemDescription.openBaseline(baselinePath).use { baseline ->
+                baseline.forEach {
+                    filesExamined++
+                    if (it.size >= minimumSize) {
+                        inMemory.add(Candidate(it.size, it.checksum, it.fileKey ?: "", it.fullyQualifiedPath))
+                        if (inMemory.size >= candidatesInMemory) {
+                            if (runs.size >= MAXIMUM_OPEN_RUNS) {
+                                // A merge pass. The runs so far become one.
+                                val mergedRun = CandidateMerge(runs, emptyList()).use { merged -> writeRun(merged) }
+                                runs.forEach { run -> run.delete() }
+                                runs.clear()
+                                runs.add(mergedRun)
+                            }
+
+                            inMemory.sortWith(CANDIDATE_ORDER)
+                            runs.add(writeRun(inMemory.iterator()))
+                            inMemory.clear()
+                        }
+                    }
+                }
+            }
+
+            inMemory.sortWith(CANDIDATE_ORDER)
+            CandidateMerge(runs, inMemory).use { merged ->
+                val sameContent = ArrayList<Candidate>()
+                var filesOfThisSize = 0L
+                while (true) {
+                    val thisCandidate = merged.nextOrNull()
+                    val first = sameContent.firstOrNull()
+                    if ((first != null) && ((thisCandidate == null) || (thisCandidate.size != first.size) || (thisCandidate.checksum != first.checksum))) {
+                        if (sameContent.size > 1) confirm(sameContent, onGroup)
+                        sameContent.clear()
+                    }
+
+                    // A size's files are all together, so they can be counted as they go by.
+                    if ((first != null) && ((thisCandidate == null) || (thisCandidate.size != first.size))) {
+                        if (filesOfThisSize > 1) candidates += filesOfThisSize
+                        filesOfThisSize = 0
+                    }
+
+                    if (thisCandidate == null) break
+                    filesOfThisSize++
+                    sameContent.add(thisCandidate)
+                }
+            }
+        } finally {
+            runs.forEach { it.delete() }
+        }
+    }
+
+    private fun confirm(sameContent: List<Candidate>, onGroup: (DuplicateGroup) -> Unit) {
+        // Paths with the same file key are next to each other, and are one file.
+        val distinctFiles = ArrayList<ArrayList<String>>()
+        var previousKey = ""
+        for (thisCandidate in sameContent) {
+            if (thisCandidate.fileKey.isNotEmpty() && (thisCandidate.fileKey == previousKey)) {
+                distinctFiles.last().add(thisCandidate.path)
+            } else {
+                distinctFiles.add(arrayListOf(thisCandidate.path))
+            }
+
+            previousKey = thisCandidate.fileKey
+        }
+
+        if (distinctFiles.size < 2) return
+        val first = sameContent.first()
+        if (verification == null) {
+            report(DuplicateGroup(first.size, first.checksum, distinctFiles, false), onGroup)
+            return
+        }
+
+        // Each file joins the first group it matches, or starts a new one. Only one path of each file is read.
+        // HASH compares whole SHA-256 digests, not the 64 bits a baseline keeps.
+        val confirmedGroups = ArrayList<ArrayList<List<String>>>()
+        val groupHashes = ArrayList<ByteArray>()
+        for (thisFile in distinctFiles) {
+            val file = File(thisFile[0])
+            try {
+                if (file.length() != first.size) {
+                    unreadableFiles++
+                    continue
+                }
+
+                val hash = if (verification == DuplicateVerification.HASH) sha256Of(file) else EMPTY_HASH
+                val match = confirmedGroups.indices.firstOrNull {
+                    if (verification == DuplicateVerification.HASH) groupHashes[it].contentEquals(hash) else sameBytes(File(confirmedGroups[it][0][0]), file)
+                }
+
+                if (match == null) {
+                    confirmedGroups.add(arrayListOf(thisFile))
+                    groupHashes.add(hash)
+                } else {
+                    confirmedGroups[match].add(thisFile)
+                }
+            } catch (thisException: IOException) {
+                unreadableFiles++
+            }
+        }
+
+        confirmedGroups.filter { it.size > 1 }.forEach {
+            report(DuplicateGroup(first.size, first.checksum, it, true), onGroup)
+        }
+    }
+
+    private fun report(thisGroup: DuplicateGroup, onGroup: (DuplicateGroup) -> Unit) {
+        groups++
+        duplicateFiles += thisGroup.files.size - 1
+        reclaimableBytes += thisGroup.reclaimableBytes
+        onGroup(thisGroup)
+    }
+
+    private fun writeRun(sorted: Iterator<Candidate>): File {
+        val run = Files.createTempFile(workFolder.toPath(), "ChangeScan-", ".run").toFile()
+        run.deleteOnExit()
+        DataOutputStream(BufferedOutputStream(FileOutputStream(run), RUN_BUFFER_SIZE)).use { output ->
+            sorted.forEach {
+                output.writeBoolean(true)
+                output.writeLong(it.size)
+                output.writeLong(it.checksum)
+                output.writeUTF(it.fileKey)
+                output.writeUTF(it.path)
+            }
+
+            output.writeBoolean(false)
+        }
+
+        return run
+    }
+
+    // A file with no file key has an empty one.
+    private class Candidate(val size: Long, val checksum: Long, val fileKey: String, val path: String)
+
+    // Merges the sorted runs with the candidates that never had to leave memory.
+    private class CandidateMerge(runFiles: List<File>, inMemory: List<Candidate>) : Iterator<Candidate>, Closeable {
+        private val inputs = ArrayList<DataInputStream>()
+        private val remaining = inMemory.iterator()
+        private val heads = PriorityQueue<Pair<Candidate, Int>>(runFiles.size + 1) { a, b -> CANDIDATE_ORDER.compare(a.first, b.first) }
+
+        init {
+            try {
+                runFiles.forEach { inputs.add(DataInputStream(BufferedInputStream(FileInputStream(it), RUN_BUFFER_SIZE))) }
+            } catch (thisException: IOException) {
+                close()
+                throw thisException
+            }
+
+            for (index in 0..inputs.size) advance(index)
+        }
+
+        override fun hasNext(): Boolean {
+            return heads.isNotEmpty()
+        }
+
+        override fun next(): Candidate {
+            val head = heads.poll() ?: throw NoSuchElementException()
+            advance(head.second)
+            return head.first
+        }
+
+        fun nextOrNull(): Candidate? {
+            return if (hasNext()) next() else null
+        }
+
+        // Index inputs.size stands for the candidates in memory.
+        private fun advance(index: Int) {
+            if (index == inputs.size) {
+                if (remaining.hasNext()) heads.add(Pair(remaining.next(), index))
+                return
+            }
+
+            val input = inputs[index]
+            if (input.readBoolean()) heads.add(Pair(Candidate(input.readLong(), input.readLong(), input.readUTF(), input.readUTF()), index))
+        }
+
+        override fun close() {
+            inputs.forEach { it.close() }
+        }
+    }
+
+    companion object {
+        private const val RUN_BUFFER_SIZE = 1 shl 16
+        private const val MAXIMUM_OPEN_RUNS = 64
+        private val EMPTY_HASH = ByteArray(0)
+
+        // Largest files first, since those are the ones most worth knowing about. Within a group, the hard links to
+        // a file are next to each other, and paths are in order.
+        private val CANDIDATE_ORDER = compareByDescending<Candidate> { it.size }.thenBy { it.checksum }.thenBy { it.fileKey }.thenBy { it.path }
+
+        private fun sha256Of(file: File): ByteArray {
+            val digest = MessageDigest.getInstance("SHA-256")
+            BufferedInputStream(FileInputStream(file), RUN_BUFFER_SIZE).use { input ->
+                val buffer = ByteArray(RUN_BUFFER_SIZE)
+                while (true) {
+                    val count = input.read(buffer)
+                    if (count < 0) break
+                    digest.update(buffer, 0, count)
+                }
+            }
+
+            return digest.digest()
+        }
+
+        private fun sameBytes(a: File, b: File): Boolean {
+            BufferedInputStream(FileInputStream(a), RUN_BUFFER_SIZE).use { first ->
+                BufferedInputStream(FileInputStream(b), RUN_BUFFER_SIZE).use { second ->
+                    val firstBuffer = ByteArray(RUN_BUFFER_SIZE)
+                    val secondBuffer = ByteArray(RUN_BUFFER_SIZE)
+                    while (true) {
+                        val count = first.readNBytes(firstBuffer, 0, firstBuffer.size)
+                        if (second.readNBytes(secondBuffer, 0, secondBuffer.size) != count) return false
+                        if (count == 0) return true
+                        if (!Arrays.equals(firstBuffer, 0, count, secondBuffer, 0, count)) return false
+                    }
+                }
+            }
+        }
+    }
+}
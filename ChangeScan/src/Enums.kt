@@ -25,7 +25,46 @@ enum class Categories {
     UNSET,
     Directory,
     File,
-    Pattern
+    Pattern,
+    Glob,
+    Regex
+}
+
+// How much the activity log says about a scan. Errors are always logged.
+enum class Verbosity(val description: String) {
+    SUMMARY("Summary and periodic progress only"),
+    DIRECTORY("Each directory"),
+    FILE("Each file");
+
+    override fun toString(): String {
+        return description
+    }
+}
+
+// How Chunker divides a large file into chunks. See FileChunks.kt.
+enum class ChunkingMethod(val description: String) {
+    FIXED("fixed-size chunks"),
+    CONTENT("content-defined chunks");
+
+    override fun toString(): String {
+        return description
+    }
+}
+
+// How DuplicateFinder confirms that files with the same size and checksum really are the same. See DuplicateFinder.kt.
+enum class DuplicateVerification(val description: String) {
+    HASH("rehashing each file with SHA-256"),
+    BYTES("comparing the files byte for byte");
+
+    override fun toString(): String {
+        return description
+    }
+}
+
+// The formats ChangeRecordWriter can write.
+enum class RecordFormat(val extension: String) {
+    NDJSON(".ndjson"),
+    CSV(".csv")
 }
 
 enum class DifferenceTypes(val description: String) {
@@ -40,6 +79,10 @@ enum class DifferenceTypes(val description: String) {
     LASTWRITE_CANDIDATE_MORE_RECENT("Latest file written to more recently"),
     LASTWRITE_ORIGINAL_MORE_RECENT("Original file written to more recently");
 
+    // This difference's bit in FileComparison.differenceFlags
+    val flag: Int
+        get() = 1 shl ordinal
+
     override fun toString(): String {
         return description
     }
@@ -0,0 +1,202 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import java.io.File
+import java.nio.file.FileSystems
+import java.nio.file.PathMatcher
+import java.nio.file.Paths
+import java.util.*
+
+/**
+ * ExclusionMatcher: A set of FilesystemExclusions compiled so that each path can be checked in one pass,
+ * without asking the file system anything. The caller says whether the path is a directory, since the scan
+ * already knows that from listing it.
+ *
+ * DIRECTORY and FILE exclusions go into a trie of path segments, so a directory exclusion also covers everything
+ * beneath it. PATTERN exclusions (substrings) are combined into one Aho-Corasick automaton. GLOB and REGEX
+ * exclusions are compiled once and tried in turn.
+ */
+internal class ExclusionMatcher(exclusions: Collection<FilesystemExclusion>) {
+    private val excludedPaths = PathTrie()
+    private val patterns: SubstringMatcher
+    private val globs = ArrayList<GlobExclusion>()
+    private val regularExpressions = ArrayList<Regex>()
+
+    init {
+        val substrings = ArrayList<String>()
+        exclusions.forEach {
+            when (it.category) {
+                Categories.Directory -> excludedPaths.add(it.specifics, true)
+                Categories.File -> excludedPaths.add(it.specifics, false)
+                Categories.Glob -> globs.add(GlobExclusion(it.specifics))
+                Categories.Regex -> regularExpressions.add(Regex(it.specifics))
+                else -> substrings.add(it.specifics)
+            }
+        }
+
+        patterns = SubstringMatcher(substrings)
+    }
+
+    fun excludes(candidate: String, isDirectory: Boolean): Boolean {
+        if (excludedPaths.covers(candidate, isDirectory)) return true
+        if (patterns.containsAny(candidate)) return true
+        if (globs.any { it.matches(candidate) }) return true
+        return regularExpressions.any { it.containsMatchIn(candidate) }
+    }
+}
+
+// A glob with a separator in it is matched against the whole path. Otherwise it's matched against the last
+// part of the path only, so "*.tmp" excludes every .tmp file wherever it is.
+private class GlobExclusion(glob: String) {
+    private val matcher: PathMatcher = FileSystems.getDefault().getPathMatcher("glob:$glob")
+    private val wholePath = glob.contains(File.separatorChar) || glob.contains('/')
+
+    fun matches(candidate: String): Boolean {
+        val path = Paths.get(candidate)
+        if (wholePath) return matcher.matches(path)
+        return path.fileName?.let { matcher.matches(it) } ?: false
+    }
+}
+
+// Directory and file exclusions, stored one path segment per level.
+private class PathTrie {
+    private class Node {
+        val children = HashMap<String, Node>()
+        var excludesDirectory = false
+        var excludesFile = false
+    }
+
+    private val root = Node()
+    private var isEmpty = true
+
+    fun add(path: String, isDirectory: Boolean) {
+        var node = root
+        forEachSegment(path) { segment ->
+            node = node.children.getOrPut(segment) { Node() }
+            true
+        }
+
+        if (isDirectory) node.excludesDirectory = true else node.excludesFile = true
+        isEmpty = false
+    }
+
+    // True if the candidate is itself excluded, or is somewhere beneath an excluded directory.
+    fun covers(candidate: String, isDirectory: Boolean): Boolean {
+        if (isEmpty) return false
+
+        var node: Node? = root
+        forEachSegment(candidate) { segment ->
+            node = node?.children?.get(segment)
+            (node != null) && !node!!.excludesDirectory
+        }
+
+        val lastNode = node ?: return false
+        return lastNode.excludesDirectory || (!isDirectory && lastNode.excludesFile)
+    }
+
+    // Stops early if action returns false.
+    private inline fun forEachSegment(path: String, action: (String) -> Boolean) {
+        var start = 0
+        while (start <= path.length) {
+            var end = path.indexOf(File.separatorChar, start)
+            if (end < 0) end = path.length
+            if ((end > start) && !action(path.substring(start, end))) return
+            start = end + 1
+        }
+    }
+}
+
+/**
+ * SubstringMatcher: An Aho-Corasick automaton, which finds whether a string contains any of a set of substrings
+ * while reading it only once, however many substrings there are. Each state's transitions are kept as a sorted
+ * array of characters so matching doesn't allocate.
+ */
+private class SubstringMatcher(substrings: Collection<String>) {
+    private val transitionCharacters: Array<CharArray>
+    private val transitionTargets: Array<IntArray>
+    private val failure: IntArray
+    private val isMatch: BooleanArray
+    private val matchesEverything = substrings.any { it.isEmpty() }
+    private val isEmpty = substrings.isEmpty()
+
+    init {
+        // Build the trie of substrings...
+        val transitions = arrayListOf(TreeMap<Char, Int>())
+        val endsSubstring = arrayListOf(false)
+        substrings.forEach { substring ->
+            var state = 0
+            substring.forEach { character ->
+                state = transitions[state].getOrPut(character) {
+                    transitions.add(TreeMap())
+                    endsSubstring.add(false)
+                    transitions.size - 1
+                }
+            }
+            endsSubstring[state] = true
+        }
+
+        transitionCharacters = Array(transitions.size) { transitions[it].keys.toCharArray() }
+        transitionTargets = Array(transitions.size) { transitions[it].values.toIntArray() }
+        failure = IntArray(transitions.size)
+        isMatch = endsSubstring.toBooleanArray()
+
+        // ...then, breadth first, where to resume when the next character doesn't continue the current match.
+        val queue = ArrayDeque<Int>()
+        transitions[0].values.forEach { queue.add(it) }
+        while (queue.isNotEmpty()) {
+            val state = queue.poll()
+            for ((character, target) in transitions[state]) {
+                var fallback = failure[state]
+                while ((fallback != 0) && (next(fallback, character) < 0)) fallback = failure[fallback]
+                val resumeAt = next(fallback, character)
+                failure[target] = if ((resumeAt >= 0) && (resumeAt != target)) resumeAt else 0
+                isMatch[target] = isMatch[target] || isMatch[failure[target]]
+                queue.add(target)
+            }
+        }
+    }
+
+    fun containsAny(candidate: String): Boolean {
+        if (matchesEverything) return true
+        if (isEmpty) return false
+
+        var state = 0
+        for (character in candidate) {
+            var target = next(state, character)
+            while ((target < 0) && (state != 0)) {
+                state = failure[state]
+                target = next(state, character)
+            }
+
+            state = if (target < 0) 0 else target
+            if (isMatch[state]) return true
+        }
+
+        return false
+    }
+
+    private fun next(state: Int, character: Char): Int {
+        val index = Arrays.binarySearch(transitionCharacters[state], character)
+        return if (index < 0) -1 else transitionTargets[state][index]
+    }
+}
@@ -0,0 +1,253 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.toolbox.ChecksumAlgorithm
+import hoodland.opensource.toolbox.ReadThrottle
+import java.io.File
+import java.util.zip.Checksum
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.concurrent.ThreadLocalRandom
+
+private const val CHUNK_READ_BUFFER_SIZE = 1 shl 20 // 1 MiB
+
+// Each thread keeps one buffer for reading chunks rather than allocating a new one per file. It's on the heap,
+// since finding content-defined boundaries looks at every byte.
+private val chunkReadBuffer = ThreadLocal.withInitial { ByteBuffer.allocate(CHUNK_READ_BUFFER_SIZE) }
+
+// Random but fixed forever: content-defined boundaries depend on it, and baselines keep the chunks it produced.
+private val GEAR = LongArray(256).also { table ->
+    val random = Random(0x4368616E67655363L)
+    for (index in table.indices) table[index] = random.nextLong()
+}
+
+/**
+ * ChunkingSettings are how a file was divided into chunks. Chunks made with different settings say nothing about
+ * each other, so they're never compared and never reused by a scan using other settings.
+ */
+internal data class ChunkingSettings(val method: ChunkingMethod, val averageChunkSize: Int)
+
+/**
+ * FileChunks records a file's content as a series of consecutive chunks, each with its own checksum. Chunk
+ * offsets aren't stored; each chunk starts where the one before it ended.
+ */
+internal class FileChunks(val lengths: IntArray, val checksums: LongArray, val settings: ChunkingSettings) {
+    val count: Int
+        get() = lengths.size
+
+    fun contentEquals(other: FileChunks): Boolean {
+        return (settings == other.settings) && lengths.contentEquals(other.lengths) && checksums.contentEquals(other.checksums)
+    }
+
+    fun isComparableTo(other: FileChunks): Boolean {
+        return settings == other.settings
+    }
+
+    fun offsetOf(index: Int): Long {
+        var result = 0L
+        for (thisIndex in 0 until index) result += lengths[thisIndex]
+        return result
+    }
+
+    /**
+     * changedRangesSince: Works out which bytes of this file hold content that the original didn't have. A chunk
+     * is unchanged if the original had a chunk of the same length and checksum anywhere, so content that merely
+     * shifted (something was inserted before it) isn't counted when the chunks were content-defined. Only
+     * meaningful if the two are comparable; see isComparableTo().
+     *
+     * @return The changed byte ranges of this file, with adjacent changed chunks joined into one range.
+     */
+    fun changedRangesSince(original: FileChunks): List<LongRange> {
+        val originalChunks = HashSet<Pair<Int, Long>>()
+        for (index in 0 until original.count) originalChunks.add(Pair(original.lengths[index], original.checksums[index]))
+
+        val result = ArrayList<LongRange>()
+        var offset = 0L
+        var changeStart = -1L
+        for (index in 0 until count) {
+            val changed = !originalChunks.contains(Pair(lengths[index], checksums[index]))
+            if (changed && (changeStart < 0)) changeStart = offset
+            if (!changed && (changeStart >= 0)) {
+                result.add(changeStart until offset)
+                changeStart = -1L
+            }
+
+            offset += lengths[index]
+        }
+
+        if (changeStart >= 0) result.add(changeStart until offset)
+        return result
+    }
+}
+
+/**
+ * Chunker divides large files into chunks and checksums each of them, so that a later comparison
+ * can say which parts of a file changed. FIXED chunks are all averageChunkSize bytes. CONTENT chunks end wherever
+ * a rolling hash of the last 64 bytes hits a particular value, so the boundaries move along with the content
+ * when bytes are inserted or removed; they average averageChunkSize bytes and are never less than a quarter
+ * or more than four times that.
+ *
+ * Files smaller than two chunks aren't divided at all. If a throttle is supplied, every read goes through it.
+ */
+internal class Chunker(val method: ChunkingMethod, val averageChunkSize: Int, private val checksumAlgorithm: ChecksumAlgorithm, private val throttle: ReadThrottle? = null) {
+    val settings = ChunkingSettings(method, averageChunkSize)
+    private val minimumChunkSize = averageChunkSize / 4
+    private val maximumChunkSize = averageChunkSize * 4
+
+    // Normalized chunking: a boundary is harder to hit before the average size and easier after it, which
+    // keeps chunk sizes close to the average. The masks use the hash's high bits, which depend on more bytes.
+    private val boundaryBits = 31 - Integer.numberOfLeadingZeros(averageChunkSize)
+    private val smallChunkMask = -1L shl (64 - (boundaryBits + 2))
+    private val largeChunkMask = -1L shl (64 - (boundaryBits - 2))
+
+    fun shouldDivide(size: Long): Boolean {
+        return size >= (2L * averageChunkSize)
+    }
+
+    /**
+     * describe: Reads the file once, finding its chunks and checksumming each one, and feeding every byte to
+     * wholeFile as well, so the file's own checksum comes from the same read. It's all done on the calling thread,
+     * so the scan's limit on how many threads read from a device at once covers these reads too.
+     */
+    fun describe(file: File, wholeFile: Checksum): FileChunks {
+        val lengths = ArrayList<Int>()
+        val checksums = ArrayList<Long>()
+        val chunk = checksumAlgorithm.newChecksum()
+        var chunkLength = 0
+        var hash = 0L
+
+        val buffer = chunkReadBuffer.get()
+        val bytes = buffer.array()
+        FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            var position = 0L
+            while (true) {
+                buffer.clear()
+                val count = read(channel, buffer, position)
+                if (count < 0) break
+                position += count
+                wholeFile.update(bytes, 0, count)
+
+                // Where the part of the current chunk that's in this buffer starts.
+                var chunkStart = 0
+                if (method == ChunkingMethod.FIXED) {
+                    while (chunkStart < count) {
+                        val length = minOf(count - chunkStart, averageChunkSize - chunkLength)
+                        chunk.update(bytes, chunkStart, length)
+                        chunkLength += length
+                        chunkStart += length
+                        if (chunkLength == averageChunkSize) {
+                            lengths.add(chunkLength)
+                            checksums.add(chunk.value)
+                            chunk.reset()
+                            chunkLength = 0
+                        }
+                    }
+                } else {
+                    for (index in 0 until count) {
+                        hash = (hash shl 1) + GEAR[bytes[index].toInt() and 0xFF]
+                        chunkLength++
+
+                        if (chunkLength < minimumChunkSize) continue
+                        val mask = if (chunkLength < averageChunkSize) smallChunkMask else largeChunkMask
+                        if (((hash and mask) == 0L) || (chunkLength >= maximumChunkSize)) {
+                            chunk.update(bytes, chunkStart, index + 1 - chunkStart)
+                            lengths.add(chunkLength)
+                            checksums.add(chunk.value)
+                            chunk.reset()
+                            chunkStart = index + 1
+                            chunkLength = 0
+                            hash = 0L
+                        }
+                    }
+
+                    chunk.update(bytes, chunkStart, count - chunkStart)
+                }
+            }
+        }
+
+        if (chunkLength > 0) {
+            lengths.add(chunkLength)
+            checksums.add(chunk.value)
+        }
+
+        return FileChunks(lengths.toIntArray(), checksums.toLongArray(), settings)
+    }
+
+    /**
+     * spotCheck: Rereads a few of the file's chunks, chosen at random, and checks them against what was recorded.
+     * This catches content that changed without the file's size or last write time changing, for a small fraction
+     * of the cost of reading the whole file.
+     *
+     * @return False if any chunk that was checked no longer matches.
+     */
+    fun spotCheck(file: File, chunks: FileChunks, count: Int): Boolean {
+        val offsets = LongArray(chunks.count)
+        for (index in 1 until chunks.count) offsets[index] = offsets[index - 1] + chunks.lengths[index - 1]
+
+        val random = ThreadLocalRandom.current()
+        FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            if (chunks.count <= count) {
+                return (0 until chunks.count).all { checksumOf(channel, offsets[it], chunks.lengths[it]) == chunks.checksums[it] }
+            }
+
+            repeat(count) {
+                val index = random.nextInt(chunks.count)
+                if (checksumOf(channel, offsets[index], chunks.lengths[index]) != chunks.checksums[index]) return false
+            }
+        }
+
+        return true
+    }
+
+    private fun checksumOf(channel: FileChannel, offset: Long, length: Int): Long {
+        val checksum = checksumAlgorithm.newChecksum()
+        val buffer = chunkReadBuffer.get()
+        var position = offset
+        val end = offset + length
+        while (position < end) {
+            buffer.clear()
+            buffer.limit(minOf(buffer.capacity().toLong(), end - position).toInt())
+            val count = read(channel, buffer, position)
+            if (count < 0) break
+            buffer.flip()
+            checksum.update(buffer)
+            position += count
+        }
+
+        return checksum.value
+    }
+
+    // Positional reads don't disturb the channel's position, so several threads can share one channel.
+    private fun read(channel: FileChannel, buffer: ByteBuffer, position: Long): Int {
+        if (throttle == null) return channel.read(buffer, position)
+
+        val expected = minOf(buffer.remaining().toLong(), channel.size() - position)
+        if (expected > 0) throttle.beforeRead(expected.toInt())
+        val started = System.nanoTime()
+        val count = channel.read(buffer, position)
+        if (count > 0) throttle.afterRead(count, System.nanoTime() - started)
+        return count
+    }
+}
@@ -21,8 +21,6 @@
 
 package hoodland.opensource.changescan
 
-import java.util.*
-
 
 internal class FileComparison(
         val originalFile: FileDescription,
@@ -31,34 +29,83 @@ internal class FileComparison(
     val fullyQualifiedPath: String
         get() = originalFile.fullyQualifiedPath
 
-    // Returns a list of the differences between the two files, determined on-the-fly.  The list is empty if there's no difference at all.
-    val differences: ArrayList<DifferenceTypes>
-        get() {
-            val differences = ArrayList<DifferenceTypes>()
-            if (candidateFile.checksum != originalFile.checksum) differences.add(DifferenceTypes.CHECKSUM_DIFFERS)
-            if (candidateFile.size > originalFile.size) differences.add(DifferenceTypes.CANDIDATE_LARGER)
-            if (candidateFile.size < originalFile.size) differences.add(DifferenceTypes.CANDIDATE_SMALLER)
-            if (candidateFile.creationTime.isAfter(originalFile.creationTime)) differences.add(DifferenceTypes.CREATIONTIME_CANDIDATE_MORE_RECENT)
-            if (candidateFile.creationTime.isBefore(originalFile.creationTime)) differences.add(DifferenceTypes.CREATIONTIME_ORIGINAL_MORE_RECENT)
-            if (candidateFile.lastAccessTime.isAfter(originalFile.lastAccessTime)) differences.add(DifferenceTypes.LASTACCESS_CANDIDATE_MORE_RECENT)
-            if (candidateFile.lastAccessTime.isBefore(originalFile.lastAccessTime)) differences.add(DifferenceTypes.LASTACCESS_ORIGINAL_MORE_RECENT)
-            if (candidateFile.lastWriteTime.isAfter(originalFile.lastWriteTime)) differences.add(DifferenceTypes.LASTWRITE_CANDIDATE_MORE_RECENT)
-            if (candidateFile.lastWriteTime.isBefore(originalFile.lastWriteTime)) differences.add(DifferenceTypes.LASTWRITE_ORIGINAL_MORE_RECENT)
-            return differences
-        }
+    /**
+     * The differences between the two files, worked out once when the comparison is made. Each DifferenceTypes
+     * that applies has its flag set; zero means there's no difference at all.
+     */
+    val differenceFlags: Int = differencesBetween(originalFile, candidateFile)
+
+    val hasDifferences: Boolean
+        get() = differenceFlags != 0
+
+    fun has(difference: DifferenceTypes): Boolean {
+        return (differenceFlags and difference.flag) != 0
+    }
 
     val allDifferencesAsString: String
         get() {
+            if (!hasDifferences) return "(no difference)"
+
             val reportedDifferences = StringBuilder()
-            for (thisDifference in differences) {
+            for (thisDifference in ALL_DIFFERENCE_TYPES) {
+                if (!has(thisDifference)) continue
                 if (reportedDifferences.length > 0) reportedDifferences.append(", ")
-                reportedDifferences.append(thisDifference.toString())
+                reportedDifferences.append(thisDifference.description)
             }
 
-            if (reportedDifferences.length < 1) return "(no difference)"
             return reportedDifferences.toString()
         }
 
     val contentWasChanged: Boolean
-        get() = differences.contains(DifferenceTypes.CHECKSUM_DIFFERS) || differences.contains(DifferenceTypes.CANDIDATE_LARGER) || differences.contains(DifferenceTypes.CANDIDATE_SMALLER)
-    }
\ No newline at end of file
+        get() = (differenceFlags and CONTENT_FLAGS) != 0
+
+    /**
+     * The byte ranges of the candidate file that hold new content, when both files were divided into chunks the
+     * same way. Empty if the content didn't change, or if the two files have no chunks that can be compared.
+     */
+    val changedRanges: List<LongRange> by lazy {
+        val originalChunks = originalFile.chunks
+        val candidateChunks = candidateFile.chunks
+        if (!contentWasChanged || (originalChunks == null) || (candidateChunks == null) || !candidateChunks.isComparableTo(originalChunks)) {
+            emptyList()
+        } else {
+            candidateChunks.changedRangesSince(originalChunks)
+        }
+    }
+
+    val changedRangesAsString: String
+        get() {
+            if (changedRanges.isEmpty()) return ""
+
+            val changedBytes = changedRanges.sumOf { it.last - it.first + 1 }
+            val result = StringBuilder("Changed bytes ")
+            changedRanges.take(MAXIMUM_RANGES_LISTED).forEachIndexed { index, thisRange ->
+                if (index > 0) result.append(", ")
+                result.append("${thisRange.first}-${thisRange.last}")
+            }
+
+            if (changedRanges.size > MAXIMUM_RANGES_LISTED) result.append(" and ${changedRanges.size - MAXIMUM_RANGES_LISTED} more ranges")
+            result.append(" ($changedBytes of ${candidateFile.size})")
+            return result.toString()
+        }
+
+    companion object {
+        private val ALL_DIFFERENCE_TYPES = DifferenceTypes.values()
+        private const val MAXIMUM_RANGES_LISTED = 5
+        private val CONTENT_FLAGS = DifferenceTypes.CHECKSUM_DIFFERS.flag or DifferenceTypes.CANDIDATE_LARGER.flag or DifferenceTypes.CANDIDATE_SMALLER.flag
+
+        private fun differencesBetween(originalFile: FileDescription, candidateFile: FileDescription): Int {
+            var result = 0
+            if (candidateFile.checksum != originalFile.checksum) result = result or DifferenceTypes.CHECKSUM_DIFFERS.flag
+            if (candidateFile.size > originalFile.size) result = result or DifferenceTypes.CANDIDATE_LARGER.flag
+            if (candidateFile.size < originalFile.size) result = result or DifferenceTypes.CANDIDATE_SMALLER.flag
+            if (candidateFile.creationTime > originalFile.creationTime) result = result or DifferenceTypes.CREATIONTIME_CANDIDATE_MORE_RECENT.flag
+            if (candidateFile.creationTime < originalFile.creationTime) result = result or DifferenceTypes.CREATIONTIME_ORIGINAL_MORE_RECENT.flag
+            if (candidateFile.lastAccessTime > originalFile.lastAccessTime) result = result or DifferenceTypes.LASTACCESS_CANDIDATE_MORE_RECENT.flag
+            if (candidateFile.lastAccessTime < originalFile.lastAccessTime) result = result or DifferenceTypes.LASTACCESS_ORIGINAL_MORE_RECENT.flag
+            if (candidateFile.lastWriteTime > originalFile.lastWriteTime) result = result or DifferenceTypes.LASTWRITE_CANDIDATE_MORE_RECENT.flag
+            if (candidateFile.lastWriteTime < originalFile.lastWriteTime) result = result or DifferenceTypes.LASTWRITE_ORIGINAL_MORE_RECENT.flag
+            return result
+        }
+    }
+}
@@ -21,44 +21,134 @@
 
 package hoodland.opensource.changescan
 
-import hoodland.opensource.toolbox.crc32ChecksumValue
+import hoodland.opensource.toolbox.ChecksumAlgorithm
+import hoodland.opensource.toolbox.ReadThrottle
+import hoodland.opensource.toolbox.checksumValue
 import java.io.File
-import java.io.Serializable
 import java.nio.file.Files
 import java.nio.file.Paths
 import java.nio.file.attribute.BasicFileAttributes
-import java.time.LocalDateTime
-import java.time.ZoneId
-
-internal open class FileDescription(val directory: String, val fileName: String) : Any(), Serializable, Comparable<FileDescription> {
-    val checksum: Long
-    val size: Long
-    val creationTime: LocalDateTime
-    val lastAccessTime: LocalDateTime
-    val lastWriteTime: LocalDateTime
+
+/**
+ * FileDescription records everything ChangeScan knows about one file at the time it was scanned.
+ * Timestamps are kept as milliseconds since the epoch, which is also how baseline files store them.
+ * Use scan() to describe a file on disk; the constructor is for descriptions read back from a baseline.
+ */
+internal open class FileDescription(
+        val directory: String,
+        val fileName: String,
+        val checksum: Long,
+        val size: Long,
+        val creationTime: Long,
+        val lastAccessTime: Long,
+        val lastWriteTime: Long,
+        // The file system's identity for the file (the device and inode on Unix-like systems). Null where the
+        // platform doesn't provide one, and in baselines saved before it was recorded.
+        val fileKey: String?,
+        // Checksums of the file's content a chunk at a time, for large files scanned with CHUNKS. Null otherwise.
+        val chunks: FileChunks? = null,
+        val checksumWasReused: Boolean = false) : Any(), Comparable<FileDescription> {
     var formerDirectory: String = ""
 
-    init {
-        var info: BasicFileAttributes = Files.readAttributes(Paths.get(fullyQualifiedPath), BasicFileAttributes::class.java)
-        size = info.size()
-        creationTime = LocalDateTime.ofInstant(info.creationTime().toInstant(), ZoneId.systemDefault())
-        lastAccessTime = LocalDateTime.ofInstant(info.lastAccessTime().toInstant(), ZoneId.systemDefault())
-        lastWriteTime = LocalDateTime.ofInstant(info.lastModifiedTime().toInstant(), ZoneId.systemDefault())
-        checksum = File(fullyQualifiedPath).crc32ChecksumValue
-    }
+    // Set by scan() when the file looked unchanged but a spot check of its chunks found otherwise.
+    var failedSpotCheck = false
+        private set
 
     val fullyQualifiedPath: String
-        get() = "$directory${File.separator}$fileName".replace("${File.separator}${File.separator}", File.separator)
+        get() = pathOf(directory, fileName)
 
     override fun compareTo(other: FileDescription): Int {
         return fullyQualifiedPath.compareTo(other.fullyQualifiedPath)
     }
 
-    fun isTheSameFile(theOther: FileDescription): Boolean {
-        return (this.fileName == theOther.fileName) && (this.checksum == theOther.checksum)
+    /**
+     * hasSameRecordAs: Checks whether a baseline would store exactly the same entry for both descriptions, which
+     * is how a delta baseline decides what to leave out.
+     */
+    fun hasSameRecordAs(other: FileDescription): Boolean {
+        if ((checksum != other.checksum) || (size != other.size) || (fileKey != other.fileKey)) return false
+        if ((creationTime != other.creationTime) || (lastAccessTime != other.lastAccessTime) || (lastWriteTime != other.lastWriteTime)) return false
+        if (formerDirectory != other.formerDirectory) return false
+
+        val theseChunks = chunks
+        val otherChunks = other.chunks
+        if ((theseChunks == null) || (otherChunks == null)) return (theseChunks == null) && (otherChunks == null)
+        return theseChunks.contentEquals(otherChunks)
+    }
+
+    private fun appearsUnchanged(candidateSize: Long, candidateLastWriteTime: Long, candidateFileKey: String?): Boolean {
+        return (size == candidateSize) && (lastWriteTime == candidateLastWriteTime) && (fileKey == candidateFileKey)
     }
 
     companion object {
-        private const val serialVersionUID = -5057162263664139079L
+        private val DOUBLED_SEPARATOR = "${File.separator}${File.separator}"
+
+        fun pathOf(directory: String, fileName: String): String {
+            val result = if (directory.endsWith(File.separatorChar)) directory + fileName else "$directory${File.separator}$fileName"
+
+            // Paths from a directory listing are already clean, so this rarely has anything to do.
+            return if (result.contains(DOUBLED_SEPARATOR)) result.replace(DOUBLED_SEPARATOR, File.separator) else result
+        }
+
+        /**
+         * scan: Describes a file as it currently exists on disk. If a previous description of the same file is
+         * supplied, and the file's size, last write time and file key all still match it, the previous checksum
+         * is reused instead of reading the file again. With a chunker, large files also get chunk checksums, and
+         * spotChecks of the previous chunks are reread before trusting that an unchanged-looking file really is.
+         * A large file is read again anyway if its previous chunks were made with other settings.
+         * If a throttle is supplied, reading the file to checksum it goes through the throttle.
+         */
+        fun scan(directory: String, fileName: String, checksumAlgorithm: ChecksumAlgorithm = ChecksumAlgorithm.DEFAULT, previous: FileDescription? = null, chunker: Chunker? = null, spotChecks: Int = 0, throttle: ReadThrottle? = null): FileDescription {
+            val info: BasicFileAttributes = Files.readAttributes(Paths.get(pathOf(directory, fileName)), BasicFileAttributes::class.java)
+            return scan(directory, fileName, info, checksumAlgorithm, previous, chunker, spotChecks, throttle)
+        }
+
+        /**
+         * scan: As above, for when the file's attributes were already read while listing its directory. The file
+         * is only opened if its checksum can't be reused, and nothing else on disk is looked at.
+         */
+        fun scan(directory: String, fileName: String, info: BasicFileAttributes, checksumAlgorithm: ChecksumAlgorithm = ChecksumAlgorithm.DEFAULT, previous: FileDescription? = null, chunker: Chunker? = null, spotChecks: Int = 0, throttle: ReadThrottle? = null): FileDescription {
+            val size = info.size()
+            val lastWriteTime = info.lastModifiedTime().toMillis()
+            val fileKey = info.fileKey()?.toString()
+            val file = File(pathOf(directory, fileName))
+
+            val shouldDivide = (chunker != null) && chunker.shouldDivide(size)
+            val previousChunks = previous?.chunks?.takeIf { (chunker != null) && (it.settings == chunker.settings) }
+            var checksumWasReused = (previous != null) && previous.appearsUnchanged(size, lastWriteTime, fileKey) && (!shouldDivide || (previousChunks != null))
+            var failedSpotCheck = false
+            if (checksumWasReused && (spotChecks > 0) && (previousChunks != null)) {
+                failedSpotCheck = !chunker!!.spotCheck(file, previousChunks, spotChecks)
+                checksumWasReused = !failedSpotCheck
+            }
+
+            val checksum: Long
+            var chunks: FileChunks? = null
+            if (checksumWasReused) {
+                checksum = previous!!.checksum
+                chunks = previousChunks
+            } else if (shouldDivide) {
+                // The whole-file checksum comes from the same read as the chunks.
+                val wholeFile = checksumAlgorithm.newChecksum()
+                chunks = chunker!!.describe(file, wholeFile)
+                checksum = wholeFile.value
+            } else {
+                checksum = file.checksumValue(checksumAlgorithm, throttle)
+            }
+
+            val result = FileDescription(
+                    directory,
+                    fileName,
+                    checksum,
+                    size,
+                    info.creationTime().toMillis(),
+                    info.lastAccessTime().toMillis(),
+                    lastWriteTime,
+                    fileKey,
+                    chunks,
+                    checksumWasReused)
+            result.failedSpotCheck = failedSpotCheck
+            return result
+        }
     }
 }
@@ -22,11 +22,18 @@
 package hoodland.opensource.changescan
 
 import hoodland.opensource.boolog.Boolog
-import hoodland.opensource.toolbox.stdout
+import java.io.File
 import java.util.*
 
 
-internal class FileSystemComparison(activityLog: Boolog, original: FileSystemDescription, candidate: FileSystemDescription) {
+/**
+ * FileSystemComparison sorts out the differences between an original and a candidate file system. Both are
+ * supplied as sources that produce FileDescriptions in sorted path order, so they can be compared as a
+ * merge-join: only the current entry of each is held at a time, and memory use depends on how much changed
+ * rather than on how many files there are. If a ChangeRecordWriter is supplied, each difference is also written
+ * to it as it's found.
+ */
+internal class FileSystemComparison(activityLog: Boolog, original: Iterator<FileDescription>, candidate: Iterator<FileDescription>, verbosity: Verbosity = Verbosity.FILE, records: ChangeRecordWriter? = null) {
     // New To Candidate
     val newToCandidate = ArrayList<FileDescription>()
 
@@ -40,49 +47,204 @@ internal class FileSystemComparison(activityLog: Boolog, original: FileSystemDes
     val contentDifferences = HashMap<String, FileComparison>()
     val timestampDifferences = HashMap<String, FileComparison>()
 
+    /**
+     * The moved files, grouped so that a directory which was moved or renamed is one DirectoryMove rather than
+     * one entry per file. Files are grouped by the part of their path that actually changed: moving /a/x/sub/f
+     * to /a/y/sub/f counts towards the move of /a/x to /a/y.
+     */
+    val directoryMoves: List<DirectoryMove> by lazy {
+        val result = HashMap<Pair<String, String>, DirectoryMove>()
+        for (movedFile in movedInCandidate) {
+            val thisMove = DirectoryMove.of(movedFile.formerDirectory, movedFile.directory)
+            result.getOrPut(thisMove.key) { thisMove }.files.add(movedFile)
+        }
+
+        result.values.sortedWith(compareBy({ it.directory }, { it.formerDirectory }))
+    }
+
     init {
         // Given a description of an original and candidate file system, populate the categories of differences between the two.
-        for (originalFileDescription in original.fileDescriptions) {
-            activityLog.info("Comparing ${originalFileDescription.fullyQualifiedPath}")
-            val counterpart = candidate.pop(originalFileDescription.fullyQualifiedPath)
-            if (counterpart == null) {
-                activityLog.info(" • Counting as Removed in Candidate: ${originalFileDescription.fullyQualifiedPath}")
-                removedInCandidate.add(originalFileDescription)
+        val addedToCandidate = ArrayList<FileDescription>()
+        var originalFileDescription = original.nextOrNull()
+        var candidateFileDescription = candidate.nextOrNull()
+        var originalPath = originalFileDescription?.fullyQualifiedPath
+        var candidatePath = candidateFileDescription?.fullyQualifiedPath
+
+        while ((originalPath != null) || (candidatePath != null)) {
+            val order = when {
+                originalPath == null -> 1
+                candidatePath == null -> -1
+                else -> originalPath.compareTo(candidatePath)
+            }
+
+            if ((order <= 0) && (verbosity >= Verbosity.FILE)) {
+                activityLog.info("Comparing $originalPath")
+            }
+
+            if (order < 0) {
+                // Only in the original. It might have been moved; that can't be known until everything new has been seen.
+                removedInCandidate.add(originalFileDescription!!)
+            } else if (order > 0) {
+                // Only in the candidate. It might have been moved; that can't be known until everything removed has been seen.
+                addedToCandidate.add(candidateFileDescription!!)
             } else {
-                val fileComparison = FileComparison(originalFileDescription, counterpart)
-                if (fileComparison.differences.size > 0) {
+                val fileComparison = FileComparison(originalFileDescription!!, candidateFileDescription!!)
+                if (fileComparison.hasDifferences) {
+                    records?.changed(fileComparison)
                     if (fileComparison.contentWasChanged) {
-                        activityLog.info(" • Counting as content change: ${originalFileDescription.fullyQualifiedPath}")
+                        if (verbosity >= Verbosity.DIRECTORY) {
+                            activityLog.info(" • Counting as content change: $originalPath")
+                            if (fileComparison.changedRanges.isNotEmpty()) activityLog.info(" • ${fileComparison.changedRangesAsString}")
+                        }
                         contentDifferences[fileComparison.fullyQualifiedPath] = fileComparison
                     } else {
-                        activityLog.info(" • Counting as timestamp change: ${originalFileDescription.fullyQualifiedPath}")
+                        if (verbosity >= Verbosity.DIRECTORY) activityLog.info(" • Counting as timestamp change: $originalPath")
                         timestampDifferences[fileComparison.fullyQualifiedPath] = fileComparison
                     }
                 }
             }
+
+            if (order <= 0) {
+                originalFileDescription = original.nextOrNull()
+                originalPath = originalFileDescription?.fullyQualifiedPath
+            }
+
+            if (order >= 0) {
+                candidateFileDescription = candidate.nextOrNull()
+                candidatePath = candidateFileDescription?.fullyQualifiedPath
+            }
         }
 
-        // At this point, only new files should remain in the Candidate
-        for (newFileDescription in candidate.fileDescriptions) {
-            if (appearsMoved(newFileDescription)) {
-                activityLog.info(" • Counting as Moved in Candidate: ${newFileDescription.fullyQualifiedPath}")
+        // At this point, only new files should remain. Some of them may really be removed files that moved.
+        val formerFileDescriptions = matchMoves(addedToCandidate)
+        val matchedRemovals = Collections.newSetFromMap(IdentityHashMap<FileDescription, Boolean>())
+        matchedRemovals.addAll(formerFileDescriptions.values)
+
+        for (newFileDescription in addedToCandidate) {
+            val formerFileDescription = formerFileDescriptions[newFileDescription]
+            if (formerFileDescription != null) {
+                newFileDescription.formerDirectory = formerFileDescription.directory
                 movedInCandidate.add(newFileDescription)
+                records?.moved(formerFileDescription, newFileDescription)
             } else {
-                activityLog.info(" • Counting as New to Candidate: ${newFileDescription.fullyQualifiedPath}")
+                if (verbosity >= Verbosity.DIRECTORY) activityLog.info(" • Counting as New to Candidate: ${newFileDescription.fullyQualifiedPath}")
                 newToCandidate.add(newFileDescription)
+                records?.added(newFileDescription)
+            }
+        }
+
+        removedInCandidate.removeIf { matchedRemovals.contains(it) }
+        records?.let { removedInCandidate.forEach { thisFile -> it.removed(thisFile) } }
+        if (verbosity >= Verbosity.DIRECTORY) {
+            removedInCandidate.forEach { activityLog.info(" • Counting as Removed in Candidate: ${it.fullyQualifiedPath}") }
+        }
+
+        for (thisMove in directoryMoves) {
+            if (verbosity < Verbosity.DIRECTORY) break
+            if (thisMove.files.size == 1) {
+                activityLog.info(" • Counting as Moved in Candidate: ${thisMove.files[0].fullyQualifiedPath}")
+            } else {
+                activityLog.info(" • Counting ${thisMove.files.size} files as Moved in Candidate: ${thisMove.formerDirectory} is now ${thisMove.directory}")
             }
         }
+
+        activityLog.info("Found ${newToCandidate.size} new, ${removedInCandidate.size} missing, ${movedInCandidate.size} moved, ${contentDifferences.size} with content changes, and ${timestampDifferences.size} with timestamp changes.")
     }
 
-    private fun appearsMoved(newFileDescription: FileDescription): Boolean {
-        removedInCandidate.forEach {
-            if (it.isTheSameFile(newFileDescription)) {
-                newFileDescription.formerDirectory = it.directory
-                removedInCandidate.remove(it)
-                return true
+    /**
+     * matchMoves: Pairs new files with the removed files they appear to have been moved from. A file is assumed
+     * to have moved if a removed file had the same name, size, and checksum, which is found by looking it up in
+     * an index rather than searching. When there are duplicates, the pairing that agrees with the most other
+     * moves wins, so copies of a file in a renamed directory stay with that directory. Otherwise both lists are
+     * in sorted path order, so the pairing comes out the same every time.
+     *
+     * @return The removed file that each moved file came from.
+     */
+    private fun matchMoves(addedToCandidate: List<FileDescription>): IdentityHashMap<FileDescription, FileDescription> {
+        val result = IdentityHashMap<FileDescription, FileDescription>()
+        val removalsByKey = removedInCandidate.groupBy { MoveKey(it) }
+        val additionsByKey = LinkedHashMap<MoveKey, ArrayList<FileDescription>>()
+        addedToCandidate.forEach {
+            if (removalsByKey.containsKey(MoveKey(it))) additionsByKey.getOrPut(MoveKey(it)) { ArrayList() }.add(it)
+        }
+
+        // Every way a duplicate could have moved is a vote for the directory move it implies.
+        val votes = HashMap<Pair<String, String>, Int>()
+        for ((key, additions) in additionsByKey) {
+            val removals = removalsByKey.getValue(key)
+            if (removals.size.toLong() * additions.size > MAXIMUM_PAIRINGS_PER_FILE) continue
+            for (removal in removals) {
+                for (addition in additions) {
+                    votes.merge(DirectoryMove.of(removal.directory, addition.directory).key, 1, Int::plus)
+                }
             }
         }
 
-        return false
+        for ((key, additions) in additionsByKey) {
+            val removals = removalsByKey.getValue(key)
+            if ((removals.size == 1) && (additions.size == 1)) {
+                result[additions[0]] = removals[0]
+                continue
+            }
+
+            // Most popular move first; sortedByDescending is stable, so ties stay in sorted path order.
+            val pairings = ArrayList<Pair<FileDescription, FileDescription>>()
+            if (removals.size.toLong() * additions.size <= MAXIMUM_PAIRINGS_PER_FILE) {
+                additions.forEach { addition -> removals.forEach { removal -> pairings.add(Pair(addition, removal)) } }
+            } else {
+                additions.zip(removals, ::Pair).forEach { pairings.add(it) }
+            }
+
+            val matchedRemovals = Collections.newSetFromMap(IdentityHashMap<FileDescription, Boolean>())
+            pairings.sortedByDescending { votes[DirectoryMove.of(it.second.directory, it.first.directory).key] ?: 0 }.forEach { (addition, removal) ->
+                if (!result.containsKey(addition) && !matchedRemovals.contains(removal)) {
+                    result[addition] = removal
+                    matchedRemovals.add(removal)
+                }
+            }
+        }
+
+        return result
     }
+
+    private data class MoveKey(val fileName: String, val checksum: Long, val size: Long) {
+        constructor(thisFileDescription: FileDescription) : this(thisFileDescription.fileName, thisFileDescription.checksum, thisFileDescription.size)
+    }
+
+    companion object {
+        // Beyond this many copies of the same file, weighing every possible pairing costs more than it's worth.
+        private const val MAXIMUM_PAIRINGS_PER_FILE = 1024L
+    }
+}
+
+/**
+ * DirectoryMove: Everything under formerDirectory that turned up under directory instead.
+ */
+internal class DirectoryMove(val formerDirectory: String, val directory: String) {
+    val files = ArrayList<FileDescription>()
+
+    val key: Pair<String, String>
+        get() = Pair(formerDirectory, directory)
+
+    companion object {
+        // Trims the trailing folders the two directories have in common, leaving just the part that changed.
+        fun of(formerDirectory: String, directory: String): DirectoryMove {
+            var former = formerDirectory
+            var current = directory
+            while (true) {
+                val formerCut = former.lastIndexOf(File.separatorChar)
+                val currentCut = current.lastIndexOf(File.separatorChar)
+                if ((formerCut <= 0) || (currentCut <= 0)) break
+                if (!former.regionMatches(formerCut, current, currentCut, maxOf(former.length - formerCut, current.length - currentCut))) break
+                former = former.substring(0, formerCut)
+                current = current.substring(0, currentCut)
+            }
+
+            return DirectoryMove(former, current)
+        }
+    }
+}
+
+internal fun Iterator<FileDescription>.nextOrNull(): FileDescription? {
+    return if (hasNext()) next() else null
 }
@@ -21,49 +21,255 @@
 
 package hoodland.opensource.changescan
 
+import hoodland.opensource.changescan.legacy.loadLegacyBaseline
+import hoodland.opensource.toolbox.ChecksumAlgorithm
 import java.io.*
 
 
-internal class FileSystemDescription : Serializable {
+/**
+ * FileSystemDescription holds a scan, or a baseline loaded from disk, keyed by fully qualified path.
+ *
+ * If spillAfter is more than zero, it never holds more than that many descriptions in memory. Each time it fills
+ * up, they're sorted and written to a temporary file in spillFolder, and saving or comparing merges those files
+ * back together. A description that has spilled can only be saved, compared and sized; it can't be searched or
+ * modified. Call discardSpill() once it's no longer needed, to delete the temporary files.
+ *
+ * chunking is how its large files were divided into chunks, which is recorded when it's saved. Only chunks made
+ * that way are saved with it.
+ */
+internal class FileSystemDescription(val checksumAlgorithm: ChecksumAlgorithm = ChecksumAlgorithm.DEFAULT, private val spillAfter: Int = 0, spillFolder: File? = null, val chunking: ChunkingSettings? = null) {
     private val thisFileSystem = HashMap<String, FileDescription>()
+    private val spilled = SortedRuns(checksumAlgorithm, spillFolder ?: File(System.getProperty("java.io.tmpdir")), chunking)
+
+    // The snapshot ID of the baseline this was loaded from or last saved as. Zero for a scan that hasn't been saved.
+    var snapshotId = 0L
+        private set
+
+    val hasSpilled: Boolean
+        get() = !spilled.isEmpty
 
     val fileDescriptions: Collection<FileDescription>
-        get() = thisFileSystem.values
+        get() {
+            requireInMemory()
+            return thisFileSystem.values
+        }
 
+    // Synchronized because the ParallelScanner adds from several threads at once.
+    @Synchronized
     fun add(thisFileDescription: FileDescription) {
         thisFileSystem[thisFileDescription.fullyQualifiedPath] = thisFileDescription
+        if ((spillAfter > 0) && (thisFileSystem.size >= spillAfter)) {
+            spilled.write(sortedDescriptions())
+            thisFileSystem.clear()
+        }
+    }
+
+    /**
+     * discardSpill: Deletes the temporary files of a description that has spilled, leaving only what's still in memory.
+     */
+    @Synchronized
+    fun discardSpill() {
+        spilled.close()
     }
 
-    @Throws(FileNotFoundException::class, IOException::class)
-    fun save(filePath: String) {
-        //Saves via binary serialization.
-        var thisFileStream: ObjectOutputStream? = ObjectOutputStream(FileOutputStream(rightedFilePath(filePath)))
-        thisFileStream!!.writeObject(this)
-        thisFileStream.close()
-        //using (FileStream thisFileStream = File.Create(rightedFilePath(filePath))) new BinaryFormatter().Serialize(thisFileStream, this);
+    private fun requireInMemory() {
+        if (hasSpilled) throw IllegalStateException("This file system description was spilled to disk. It can only be saved or compared.")
+    }
+
+    private fun sortedDescriptions(): Iterator<FileDescription> {
+        return thisFileSystem.entries.sortedBy { it.key }.asSequence().map { it.value }.iterator()
+    }
+
+    /**
+     * save: Saves in the binary baseline format, sorted by path. See BaselineFile.kt. If a parent baseline is
+     * supplied, only what changed since the parent is saved, as a delta. The saved baseline gets a new snapshot
+     * ID unless keepSnapshotId is true, which is for saving the same snapshot again in another form.
+     */
+    // Synchronized so that a WATCH checkpoint never saves a half-applied change. FileSystemWatcher holds the same
+    // lock while it takes a folder out to rescan it and puts it back.
+    @Synchronized
+    @Throws(FileNotFoundException::class, IOException::class, ClassNotFoundException::class)
+    fun save(filePath: String, compress: Boolean = false, parentPath: String? = null, keepSnapshotId: Boolean = false) {
+        val savedSnapshotId = if (keepSnapshotId && (snapshotId != 0L)) snapshotId else newSnapshotId()
+
+        sortedSource().use { descriptions ->
+            if (parentPath == null) {
+                BaselineWriter(rightedFilePath(filePath), checksumAlgorithm, compress, savedSnapshotId, chunking = chunking).use { writer ->
+                    descriptions.forEach { writer.write(it) }
+                }
+            } else {
+                // A Java-serialized baseline has no snapshot ID, so there'd be no way to tell later that it had been replaced.
+                if (!isBaselineFormat(rightedFilePath(parentPath))) throw IOException("Can't save a delta of $parentPath, which is in the old Java-serialized format. CONVERT it to the current format first, and use that as the parent.")
+
+                openBaseline(parentPath).use { parent ->
+                    if (parent.checksumAlgorithm != checksumAlgorithm) throw IOException("Can't save a $checksumAlgorithm scan as a delta of $parentPath, which uses ${parent.checksumAlgorithm}.")
+                    BaselineWriter(rightedFilePath(filePath), checksumAlgorithm, compress, savedSnapshotId, rightedFilePath(parentPath), parent.snapshotId, chunking).use { writer ->
+                        writeDelta(writer, descriptions, parent)
+                    }
+                }
+            }
+        }
+
+        snapshotId = savedSnapshotId
+    }
+
+    // Both sides are in sorted order, so this is another merge-join.
+    private fun writeDelta(writer: BaselineWriter, entries: Iterator<FileDescription>, parent: BaselineSource) {
+        var thisEntry = if (entries.hasNext()) entries.next() else null
+        var parentEntry = parent.nextOrNull()
+        while ((thisEntry != null) || (parentEntry != null)) {
+            val order = when {
+                thisEntry == null -> 1
+                parentEntry == null -> -1
+                else -> thisEntry.fullyQualifiedPath.compareTo(parentEntry.fullyQualifiedPath)
+            }
+
+            if (order < 0) {
+                writer.write(thisEntry!!)
+            } else if (order > 0) {
+                writer.writeRemoved(parentEntry!!.directory, parentEntry.fileName)
+            } else if (!thisEntry!!.hasSameRecordAs(parentEntry!!)) {
+                writer.write(thisEntry)
+            } else {
+                writer.countUnchanged(thisEntry)
+            }
+
+            if (order <= 0) thisEntry = if (entries.hasNext()) entries.next() else null
+            if (order >= 0) parentEntry = parent.nextOrNull()
+        }
+    }
+
+    /**
+     * sortedSource: Supplies this file system's descriptions sorted by fully qualified path, the same order
+     * a baseline file is in, so it can take part in a streaming comparison. If it has spilled, the temporary
+     * files are merged with what's still in memory as they're read.
+     */
+    fun sortedSource(): BaselineSource {
+        if (hasSpilled) return spilled.merged(sortedDescriptions())
+
+        val sortedPaths = thisFileSystem.keys.sorted().iterator()
+        return object : BaselineSource {
+            override val checksumAlgorithm = this@FileSystemDescription.checksumAlgorithm
+            override val snapshotId = this@FileSystemDescription.snapshotId
+            override val chunking = this@FileSystemDescription.chunking
+            override fun hasNext() = sortedPaths.hasNext()
+            override fun next() = thisFileSystem[sortedPaths.next()]!!
+            override fun close() { }
+        }
     }
 
     operator fun get(FullyQualifiedPath: String): FileDescription? {
+        requireInMemory()
         return thisFileSystem.get(FullyQualifiedPath)
     }
 
+    @Synchronized
     fun pop(FullyQualifiedPath: String): FileDescription? {
+        requireInMemory()
         val pop = thisFileSystem.get(FullyQualifiedPath)
         thisFileSystem.remove(FullyQualifiedPath)
         return pop
     }
 
+    /**
+     * popDirectory: Removes every file in the directory or anywhere beneath it.
+     *
+     * @return The files that were removed, as a FileSystemDescription of their own.
+     */
+    @Synchronized
+    fun popDirectory(directory: String): FileSystemDescription {
+        requireInMemory()
+        val result = FileSystemDescription(checksumAlgorithm)
+        val prefix = if (directory.endsWith(File.separator)) directory else "$directory${File.separator}"
+        val iterator = thisFileSystem.entries.iterator()
+        while (iterator.hasNext()) {
+            val thisEntry = iterator.next()
+            if (thisEntry.key.startsWith(prefix)) {
+                result.add(thisEntry.value)
+                iterator.remove()
+            }
+        }
+
+        return result
+    }
+
+    // Counts a path that was added more than once, before and after a spill, each time.
+    val size: Long
+        get() = spilled.entries + thisFileSystem.size
+
     companion object {
         private const val EXTENSION = ".fsc"
 
         @Throws(FileNotFoundException::class, IOException::class, ClassNotFoundException::class)
         fun loadInstance(filePath: String): FileSystemDescription {
-            //Loads via binary serialization.
-            var thisFileStream: ObjectInputStream? = ObjectInputStream(FileInputStream(rightedFilePath(filePath)))
-            val result = thisFileStream!!.readObject() as FileSystemDescription
-            thisFileStream.close()
-            return result
-            //using (FileStream thisFileStream = File.OpenRead(rightedFilePath(filePath))) return (FileSystemDescription)(new BinaryFormatter().Deserialize(thisFileStream));
+            val actualPath = rightedFilePath(filePath)
+
+            // Baselines saved by older versions of ChangeScan are Java-serialized. Convert them on the way in.
+            if (!isBaselineFormat(actualPath)) return loadLegacyBaseline(actualPath)
+
+            // Not mapped, so the baseline can be saved over once it's loaded.
+            openBaseline(actualPath, mapped = false).use { source ->
+                val result = FileSystemDescription(source.checksumAlgorithm, chunking = source.chunking)
+                result.snapshotId = source.snapshotId
+                source.forEach { result.add(it) }
+                return result
+            }
+        }
+
+        /**
+         * openBaseline: Opens a saved baseline for streaming, without loading it into memory. A delta is combined
+         * with its parent, and that with its own parent if it's a delta too, so what's supplied is always the full
+         * snapshot. Baselines in the old Java-serialized format can't be streamed; those are loaded and then supplied
+         * in sorted order.
+         */
+        @Throws(FileNotFoundException::class, IOException::class, ClassNotFoundException::class)
+        fun openBaseline(filePath: String, mapped: Boolean = true): BaselineSource {
+            val actualPath = rightedFilePath(filePath)
+            if (!isBaselineFormat(actualPath)) return loadLegacyBaseline(actualPath).sortedSource()
+
+            val reader = BaselineReader(actualPath, mapped)
+            val parentPath = reader.parentPath ?: return reader
+            try {
+                val parent = openBaseline(parentPath, mapped)
+                if (parent.snapshotId != reader.parentSnapshotId) {
+                    parent.close()
+                    throw IOException("$actualPath was saved as a delta of $parentPath, but that file has changed since.")
+                }
+
+                return DeltaSource(parent, reader)
+            } catch (thisException: Exception) {
+                reader.close()
+                throw thisException
+            }
+        }
+
+        /**
+         * recordedTotals: The number of files in a saved baseline's snapshot and the bytes they hold, read from its
+         * header without going through its entries, or its parent's.
+         *
+         * @return The files and bytes, or null if the baseline is in the old Java-serialized format.
+         */
+        @Throws(FileNotFoundException::class, IOException::class)
+        fun recordedTotals(filePath: String): Pair<Long, Long>? {
+            val actualPath = rightedFilePath(filePath)
+            if (!isBaselineFormat(actualPath)) return null
+            BaselineReader(actualPath).use {
+                return Pair(it.snapshotFiles, it.snapshotBytes)
+            }
+        }
+
+        /**
+         * openSiblings: If both baselines are deltas of the same parent, sets up their comparison from the deltas
+         * themselves. See openSiblingDeltas().
+         *
+         * @return Sources for the newer and older snapshots, or null if they aren't deltas of the same parent.
+         */
+        @Throws(FileNotFoundException::class, IOException::class, ClassNotFoundException::class)
+        fun openSiblings(newerPath: String, olderPath: String): Pair<BaselineSource, BaselineSource>? {
+            val actualNewerPath = rightedFilePath(newerPath)
+            val actualOlderPath = rightedFilePath(olderPath)
+            if (!isBaselineFormat(actualNewerPath) || !isBaselineFormat(actualOlderPath)) return null
+            return openSiblingDeltas(actualNewerPath, actualOlderPath) { openBaseline(it) }
         }
 
         private fun rightedFilePath(filePath: String): String {
@@ -72,4 +278,4 @@ internal class FileSystemDescription : Serializable {
             return result
         }
     }
-}
\ No newline at end of file
+}
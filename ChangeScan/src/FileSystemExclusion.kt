@@ -22,28 +22,13 @@
 package hoodland.opensource.changescan
 
 import hoodland.opensource.toolbox.UNSET_STRING
-import java.io.File
 
 
 class FilesystemExclusion(ChosenCategory: Categories, Description: String) {
-    private var category = Categories.UNSET
-    private var specifics: String = UNSET_STRING
-    fun excludes(candidate: String): Boolean {
-        when (category) {
-            Categories.Directory -> if (File(candidate).isDirectory) {
-                if (candidate == specifics) {
-                    return true
-                }
-            }
-            Categories.File -> if (File(candidate).isFile) {
-                if (candidate == specifics) {
-                    return true
-                }
-            }
-            else -> return candidate.contains(specifics)
-        }
-        return false
-    }
+    var category = Categories.UNSET
+        private set
+    var specifics: String = UNSET_STRING
+        private set
 
     override fun toString(): String {
         return "$category $specifics"
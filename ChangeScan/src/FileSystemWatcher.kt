@@ -0,0 +1,218 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.boolog.Boolog
+import hoodland.opensource.boolog.showThrowable
+import java.io.IOException
+import java.nio.file.*
+import java.nio.file.StandardWatchEventKinds.*
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.TimeUnit
+
+/**
+ * FileSystemWatcher keeps a FileSystemDescription up to date after a scan, for WATCH mode. Every directory in
+ * the tree is registered with a WatchService. When files are created, modified or deleted the description is
+ * updated and only those files are hashed again. If the WatchService loses track (an overflow), the directory
+ * it was watching is rescanned. The description is saved as a baseline every so often, and when the program is
+ * stopped, if anything changed. It runs until the program is stopped.
+ */
+internal class FileSystemWatcher(
+        private val activityLog: Boolog,
+        private val workOrder: WorkOrder,
+        private val thisFileSystem: FileSystemDescription) {
+    private val watchService = FileSystems.getDefault().newWatchService()
+    private val watchedDirectories = HashMap<WatchKey, Path>()
+    private val checkpointInterval = TimeUnit.SECONDS.toNanos(workOrder.watchCheckpointSeconds)
+    private var nextCheckpoint = System.nanoTime() + checkpointInterval
+    @Volatile
+    private var changedSinceCheckpoint = false
+
+    fun watch() {
+        activityLog.info("Watching ${workOrder.startingDirectories.joinToString()} for changes. Stop the program to end the watch.", "👁️")
+        workOrder.startingDirectories.forEach { register(Paths.get(it)) }
+        activityLog.info("Watching ${watchedDirectories.size} directories.")
+
+        Runtime.getRuntime().addShutdownHook(Thread { checkpoint(true) })
+
+        while (watchedDirectories.isNotEmpty()) {
+            val key = watchService.poll(POLL_MILLISECONDS, TimeUnit.MILLISECONDS)
+            if (key != null) {
+                // Wait for things to settle, so a burst of events for one file (creating it, then writing it) only hashes it once.
+                val changes = LinkedHashMap<Path, WatchEvent.Kind<*>>()
+                val overflowed = LinkedHashSet<Path>()
+                val settleBy = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAXIMUM_SETTLE_MILLISECONDS)
+                var thisKey: WatchKey? = key
+                while (thisKey != null) {
+                    collectEvents(thisKey, changes, overflowed)
+                    thisKey = if (System.nanoTime() < settleBy) watchService.poll(SETTLE_MILLISECONDS, TimeUnit.MILLISECONDS) else watchService.poll()
+                }
+
+                overflowed.forEach { rescan(it) }
+                changes.forEach { (path, kind) ->
+                    if (overflowed.none { path.startsWith(it) }) applyChange(path, kind)
+                }
+            }
+
+            if (System.nanoTime() >= nextCheckpoint) {
+                checkpoint()
+                nextCheckpoint = System.nanoTime() + checkpointInterval
+            }
+        }
+
+        activityLog.info("Nothing is left to watch.")
+        checkpoint()
+    }
+
+    private fun collectEvents(key: WatchKey, changes: LinkedHashMap<Path, WatchEvent.Kind<*>>, overflowed: LinkedHashSet<Path>) {
+        val directory = watchedDirectories[key]
+        if (directory != null) {
+            for (event in key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflowed.add(directory)
+                } else {
+                    val path = directory.resolve(event.context() as Path)
+
+                    // A create followed by a modify is still a create, as far as the baseline is concerned.
+                    if (changes[path] != ENTRY_CREATE) changes[path] = event.kind()
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            // The directory is gone, or can no longer be watched.
+            watchedDirectories.remove(key)
+        }
+    }
+
+    private fun applyChange(path: Path, kind: WatchEvent.Kind<*>) {
+        try {
+            val directory = path.parent.toString()
+            val fileName = path.fileName.toString()
+            val fullyQualifiedPath = FileDescription.pathOf(directory, fileName)
+
+            if ((kind == ENTRY_DELETE) || !Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                val previous = thisFileSystem.pop(fullyQualifiedPath)
+                if (previous != null) {
+                    changed("Removed: $fullyQualifiedPath", "🚫")
+                } else {
+                    val removedFiles = thisFileSystem.popDirectory(fullyQualifiedPath).size
+                    if (removedFiles > 0) changed("Removed $removedFiles files with folder $fullyQualifiedPath", "🚫")
+                }
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                // A new (or renamed) folder. Anything in it was put there before it could be watched.
+                if ((kind == ENTRY_CREATE) && !workOrder.excludes(fullyQualifiedPath, true)) rescan(path)
+            } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && !workOrder.excludes(fullyQualifiedPath, false)) {
+                val previous = thisFileSystem[fullyQualifiedPath]
+                val current = FileDescription.scan(directory, fileName, thisFileSystem.checksumAlgorithm, previous, workOrder.chunker, throttle = workOrder.rateLimiter)
+                thisFileSystem.add(current)
+
+                if (previous == null) {
+                    changed("New: $fullyQualifiedPath", "🆕")
+                } else {
+                    val comparison = FileComparison(previous, current)
+                    if (comparison.contentWasChanged) {
+                        val changedRanges = if (comparison.changedRanges.isEmpty()) "" else "; ${comparison.changedRangesAsString}"
+                        changed("Content changed: $fullyQualifiedPath (${comparison.allDifferencesAsString}$changedRanges)", "⚠️")
+                    } else if (comparison.hasDifferences) {
+                        changed("Timestamp changed: $fullyQualifiedPath (${comparison.allDifferencesAsString})", "🕑", Verbosity.DIRECTORY)
+                    }
+                }
+            }
+        } catch (thisException: Exception) {
+            // It may have been changed again, or deleted, while it was being looked at. A later event will tell.
+            activityLog.error("Unable to update $path")
+            activityLog.showThrowable(thisException)
+        }
+    }
+
+    // Rescans a folder and everything in it, reusing the checksums of files that appear unchanged.
+    private fun rescan(directory: Path) {
+        activityLog.info("Rescanning $directory", "🔄")
+        register(directory)
+
+        val previousFiles: FileSystemDescription
+        val currentFiles = FileSystemDescription(thisFileSystem.checksumAlgorithm, chunking = thisFileSystem.chunking)
+
+        // save() takes the same lock, so a checkpoint can't catch the folder after it's been taken out and before
+        // it's been put back. Faults are only logged to the activity log, since there's no error log to show them in.
+        synchronized(thisFileSystem) {
+            previousFiles = thisFileSystem.popDirectory(directory.toString())
+            ScanEngine.scanTree(activityLog, null, workOrder, directory.toString(), currentFiles, previousFiles)
+            currentFiles.fileDescriptions.forEach { thisFileSystem.add(it) }
+        }
+
+        val comparison = FileSystemComparison(activityLog, previousFiles.sortedSource(), currentFiles.sortedSource(), workOrder.verbosity)
+        if ((comparison.newToCandidate.size + comparison.removedInCandidate.size + comparison.movedInCandidate.size + comparison.contentDifferences.size + comparison.timestampDifferences.size) > 0) {
+            changedSinceCheckpoint = true
+        }
+    }
+
+    // Watches the folder and every folder beneath it that isn't excluded.
+    private fun register(directory: Path) {
+        try {
+            Files.walkFileTree(directory, object : SimpleFileVisitor<Path>() {
+                override fun preVisitDirectory(thisDirectory: Path, attributes: BasicFileAttributes): FileVisitResult {
+                    if (workOrder.excludes(thisDirectory.toString(), true)) return FileVisitResult.SKIP_SUBTREE
+                    watchedDirectories[thisDirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY)] = thisDirectory
+                    return FileVisitResult.CONTINUE
+                }
+
+                override fun visitFileFailed(file: Path, exception: IOException): FileVisitResult {
+                    activityLog.error("Unable to watch $file: ${exception.message}")
+                    return FileVisitResult.CONTINUE
+                }
+            })
+        } catch (thisException: IOException) {
+            activityLog.error("Unable to watch $directory: ${thisException.message}")
+        }
+    }
+
+    private fun changed(message: String, emoji: String, level: Verbosity = Verbosity.SUMMARY) {
+        changedSinceCheckpoint = true
+        if (level <= workOrder.verbosity) activityLog.info(message, emoji)
+    }
+
+    // The activity log concludes itself when the program is stopped, possibly before this runs, so the checkpoint
+    // made then goes straight to the console.
+    @Synchronized
+    private fun checkpoint(isStopping: Boolean = false) {
+        if (!changedSinceCheckpoint) return
+        changedSinceCheckpoint = false
+
+        try {
+            thisFileSystem.save(workOrder.snapshotSavePath, workOrder.compressBaseline, workOrder.deltaParent)
+            val msg = "Checkpoint: saved ${thisFileSystem.size} files to baseline file ${workOrder.snapshotSavePath}"
+            if (isStopping) System.out.println(msg) else activityLog.info(msg, "\uD83D\uDCBE")
+        } catch (thisException: Exception) {
+            changedSinceCheckpoint = true
+            val msg = "Unable to save checkpoint to ${workOrder.snapshotSavePath}: ${thisException.message}"
+            if (isStopping) System.out.println("⛔ $msg") else activityLog.error(msg)
+        }
+    }
+
+    companion object {
+        private const val POLL_MILLISECONDS = 1000L
+        private const val SETTLE_MILLISECONDS = 250L
+        private const val MAXIMUM_SETTLE_MILLISECONDS = 2000L
+    }
+}
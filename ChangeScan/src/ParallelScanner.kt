@@ -0,0 +1,62 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.boolog.Boolog
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+
+/**
+ * ParallelScanner walks the file system with a fork-join pool. Each directory becomes its own task, which
+ * describes the files directly inside it and then forks a task per subdirectory. Idle threads steal pending
+ * directories from busy ones, so a lopsided tree still keeps every thread occupied. The resulting
+ * FileSystemDescription holds the same entries the serial walk in ScanEngine would have produced.
+ */
+internal class ParallelScanner(
+        private val activityLog: Boolog,
+        private val errorLog: Boolog?,
+        private val workOrder: WorkOrder,
+        private val thisFileSystem: FileSystemDescription,
+        private val previousFileSystem: FileSystemDescription? = null,
+        private val threads: Int = workOrder.threads) {
+
+    // Several roots share the one pool, so together they never have more than the given number of threads.
+    fun scan(rootDirectories: List<String>) {
+        val pool = ForkJoinPool(threads)
+        try {
+            pool.invoke(object : RecursiveAction() {
+                override fun compute() {
+                    invokeAll(rootDirectories.map { DirectoryTask(it) })
+                }
+            })
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    private inner class DirectoryTask(val directory: String) : RecursiveAction() {
+        override fun compute() {
+            val subdirectories = ScanEngine.scanDirectory(activityLog, errorLog, workOrder, directory, thisFileSystem, previousFileSystem)
+            invokeAll(subdirectories.map { DirectoryTask(it) })
+        }
+    }
+}
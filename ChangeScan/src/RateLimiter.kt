@@ -0,0 +1,145 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.toolbox.ReadThrottle
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * RateLimiter keeps a scan to a budget of bytes read per second and files described per second, so it can run
+ * beside a production workload with a predictable impact. Each budget is a token bucket holding up to one second's
+ * worth; a read or a file that finds the bucket short waits until it would have been refilled. One RateLimiter is
+ * shared by every thread of a scan, so the budget is for the scan as a whole.
+ *
+ * If adaptive, the byte budget also shrinks when reads start taking longer than they usually do, which is a sign
+ * that something else wants the disk, and grows back once they don't: halved (to no less than a sixteenth) when the
+ * recent read time per MiB is more than twice the long-run average, and raised a little at a time when it's back
+ * below one and a quarter times it.
+ *
+ * @param bytesPerSecond The byte budget, or 0 for no limit on bytes.
+ * @param filesPerSecond The file budget, or 0 for no limit on files.
+ */
+internal class RateLimiter(val bytesPerSecond: Long, val filesPerSecond: Long, val adaptive: Boolean = false) : ReadThrottle {
+    private val byteBucket = if (bytesPerSecond > 0) TokenBucket(bytesPerSecond) else null
+    private val fileBucket = if (filesPerSecond > 0) TokenBucket(filesPerSecond) else null
+    private val waited = AtomicLong()
+
+    // Guarded by this. Read times are kept as nanoseconds per MiB so that reads of different sizes compare.
+    private var recentLatency = 0.0
+    private var longRunLatency = 0.0
+    private var nextAdjustment = 0L
+
+    @Volatile
+    var rateFactor = 1.0
+        private set
+
+    @Volatile
+    var lowestRateFactor = 1.0
+        private set
+
+    // The total time every thread has spent waiting for the budget.
+    val secondsWaited: Double
+        get() = waited.get() / 1_000_000_000.0
+
+    fun beforeFile() {
+        fileBucket?.let { waited.addAndGet(it.acquire(1.0, 1.0)) }
+    }
+
+    override fun beforeRead(bytes: Int) {
+        byteBucket?.let { waited.addAndGet(it.acquire(bytes.toDouble(), rateFactor)) }
+    }
+
+    override fun afterRead(bytes: Int, nanoseconds: Long) {
+        if (!adaptive || (bytes < MINIMUM_SAMPLE_BYTES)) return
+        val latency = nanoseconds * (BYTES_PER_MIB / bytes)
+
+        synchronized(this) {
+            if (longRunLatency == 0.0) {
+                recentLatency = latency
+                longRunLatency = latency
+            } else {
+                recentLatency += (latency - recentLatency) * RECENT_WEIGHT
+                longRunLatency += (latency - longRunLatency) * LONG_RUN_WEIGHT
+            }
+
+            val now = System.nanoTime()
+            if (now < nextAdjustment) return
+            nextAdjustment = now + ADJUSTMENT_INTERVAL
+
+            if (recentLatency > (longRunLatency * BACK_OFF_THRESHOLD)) {
+                rateFactor = maxOf(rateFactor / 2, MINIMUM_RATE_FACTOR)
+                lowestRateFactor = minOf(lowestRateFactor, rateFactor)
+            } else if (recentLatency < (longRunLatency * RECOVERY_THRESHOLD)) {
+                rateFactor = minOf(rateFactor + RECOVERY_STEP, 1.0)
+            }
+        }
+    }
+
+    override fun toString(): String {
+        val budgets = ArrayList<String>()
+        if (bytesPerSecond > 0) budgets.add("${"%.1f".format(bytesPerSecond / BYTES_PER_MIB)} MB/s")
+        if (filesPerSecond > 0) budgets.add("$filesPerSecond files/s")
+        return budgets.joinToString(" and ") + if (adaptive) ", backing off when reads slow down" else ""
+    }
+
+    companion object {
+        private const val BYTES_PER_MIB = 1024.0 * 1024.0
+        private const val MINIMUM_SAMPLE_BYTES = 64 * 1024
+        private const val RECENT_WEIGHT = 0.2
+        private const val LONG_RUN_WEIGHT = 0.01
+        private const val BACK_OFF_THRESHOLD = 2.0
+        private const val RECOVERY_THRESHOLD = 1.25
+        private const val RECOVERY_STEP = 0.05
+        private const val MINIMUM_RATE_FACTOR = 1.0 / 16
+        private val ADJUSTMENT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250)
+    }
+}
+
+// Tokens may go below zero: a request bigger than what's in the bucket is let through once the debt it leaves
+// would have been paid off, so one large read doesn't have to be split up to fit.
+private class TokenBucket(private val ratePerSecond: Long) {
+    private val capacity = ratePerSecond.toDouble()
+    private var tokens = capacity
+    private var lastRefill = System.nanoTime()
+
+    /**
+     * acquire: Takes the given number of tokens, waiting if the bucket is short.
+     *
+     * @param rateFactor The fraction of the full rate the bucket is refilling at.
+     * @return How many nanoseconds were spent waiting.
+     */
+    fun acquire(amount: Double, rateFactor: Double): Long {
+        val wait: Long
+        synchronized(this) {
+            val rate = ratePerSecond * rateFactor
+            val now = System.nanoTime()
+            tokens = minOf(capacity, tokens + ((now - lastRefill) * rate / 1_000_000_000.0))
+            lastRefill = now
+            tokens -= amount
+            wait = if (tokens >= 0) 0L else (-tokens * 1_000_000_000.0 / rate).toLong()
+        }
+
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait)
+        return wait
+    }
+}
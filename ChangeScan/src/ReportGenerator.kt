@@ -23,9 +23,17 @@ package hoodland.opensource.changescan
 
 import hoodland.opensource.boolog.Boolog
 import hoodland.opensource.boolog.THEME_CLASSIC
+import java.io.File
 import java.io.PrintWriter
+import java.net.URI
 
-internal class ReportGenerator(val savePath: String) {
+/**
+ * ReportGenerator writes the HTML change report. Ordinarily the whole report is one page. With a pageSize,
+ * the main page only has the totals and a rollup of changes by directory, and each category of change is
+ * written out in sorted order, pageSize rows at a time, to numbered page files in a folder beside it. Only one
+ * page is ever held in memory, and a browser only ever has to open one page.
+ */
+internal class ReportGenerator(val savePath: String, val pageSize: Int = 0) {
     // TODO: Test on Windows
     var reportFile: Boolog? = null
 
@@ -36,16 +44,21 @@ internal class ReportGenerator(val savePath: String) {
                 false,
                 true,
                 THEME_CLASSIC,
-                ::logHeader)
+                ::reportHeader).streamHTML()
 
         reportFile?.let { report ->
+            if (pageSize > 0) {
+                preparePages(report, targetData)
+                return
+            }
+
             // New
             if (targetData.newToCandidate.size > 0) {
                 targetData.newToCandidate.sort()
                 val newToCandidateReport = Boolog("${targetData.newToCandidate.size} New", null, null, false)
 
                 for (thisFile in targetData.newToCandidate) {
-                    newToCandidateReport.info(thisFile.fullyQualifiedPath, "\uD83C\uDD95")
+                    newToCandidateReport.info(thisFile.fullyQualifiedPath, NEW_FILE_ROW_ICON)
                 }
 
                 if (newToCandidateReport.wasUsed) {
@@ -59,7 +72,7 @@ internal class ReportGenerator(val savePath: String) {
                 targetData.removedInCandidate.sort()
                 val missingFromOriginalReport = Boolog("${targetData.removedInCandidate.size} Missing", null, null, false)
                 for (thisFile in targetData.removedInCandidate) {
-                    missingFromOriginalReport.info(thisFile.fullyQualifiedPath, "\uD83D\uDEAB")
+                    missingFromOriginalReport.info(thisFile.fullyQualifiedPath, MISSING_FILE_ROW_ICON)
                 }
 
                 if (missingFromOriginalReport.wasUsed) {
@@ -70,11 +83,11 @@ internal class ReportGenerator(val savePath: String) {
 
             // Moved
             if (targetData.movedInCandidate.size > 0) {
-                targetData.movedInCandidate.sort()
                 val movedInCandidateReport = Boolog("${targetData.movedInCandidate.size} Moved", null, null, false)
 
-                for (thisFile in targetData.movedInCandidate) {
-                    movedInCandidateReport.info("${thisFile.fullyQualifiedPath}<br><small>&nbsp;&nbsp;&nbsp;• Previous location ${thisFile.formerDirectory}</small>", "\uD83D\uDCC2")
+                // A moved directory is one line, not one per file.
+                for (thisMove in targetData.directoryMoves) {
+                    movedInCandidateReport.info(movedRow(thisMove), MOVED_ROW_ICON)
                 }
 
                 if (movedInCandidateReport.wasUsed) {
@@ -92,7 +105,7 @@ internal class ReportGenerator(val savePath: String) {
                 sortedContentChangeData.forEach {
                     val change = targetData.contentDifferences[it]
                     change?.let { thisChange ->
-                        contentChangesReport.info("${thisChange.fullyQualifiedPath}<br><small>${thisChange.allDifferencesAsString}</small>", "⚠️")
+                        contentChangesReport.info(changeRow(thisChange), CONTENT_CHANGE_ROW_ICON)
                     }
                 }
 
@@ -111,7 +124,7 @@ internal class ReportGenerator(val savePath: String) {
                 sortedTimestampChangeData.forEach {
                     val change = targetData.timestampDifferences[it]
                     change?.let { thisChange ->
-                        timestampChangesReport.info("${thisChange.fullyQualifiedPath}<br><small>${thisChange.allDifferencesAsString}</small>", "\uD83D\uDD51")
+                        timestampChangesReport.info(changeRow(thisChange), TIMESTAMP_CHANGE_ROW_ICON)
                     }
                 }
 
@@ -122,6 +135,33 @@ internal class ReportGenerator(val savePath: String) {
         }
     }
 
+    /**
+     * prepareDuplicates: Reports every group of duplicates the finder finds, largest files first, followed by
+     * the totals. The groups are written as they're found rather than collected first.
+     */
+    fun prepareDuplicates(finder: DuplicateFinder) {
+        val report = Boolog("Duplicate Files",
+                null,
+                PrintWriter(savePath),
+                false,
+                true,
+                THEME_CLASSIC,
+                ::reportHeader).streamHTML()
+        reportFile = report
+
+        finder.find { report.info(duplicateRow(it), DUPLICATE_ROW_ICON) }
+
+        if (finder.groups == 0L) {
+            report.info("No duplicates among ${finder.filesExamined} files.", DUPLICATE_ROW_ICON)
+        } else {
+            report.info("${finder.groups} groups of duplicates among ${finder.filesExamined} files. Removing ${finder.duplicateFiles} of them would reclaim ${"%,d".format(finder.reclaimableBytes)} bytes.", DUPLICATE_ROW_ICON)
+        }
+
+        if (finder.unreadableFiles > 0) {
+            report.info("${finder.unreadableFiles} files couldn't be checked, because they're gone, have changed size, or can't be read. They're left out.", MISSING_FILE_ROW_ICON)
+        }
+    }
+
     fun conclude(errorLog: Boolog) {
         reportFile?.let { report ->
             if (errorLog.wasUsed) {
@@ -130,9 +170,226 @@ internal class ReportGenerator(val savePath: String) {
 
             report.conclude()
         }
+
+        reportFile = null
+    }
+
+    private fun preparePages(report: Boolog, targetData: FileSystemComparison) {
+        val reportFile = File(savePath)
+        val pagesFolder = File(reportFile.absoluteFile.parentFile, "${reportFile.nameWithoutExtension}$PAGES_FOLDER_SUFFIX")
+        pagesFolder.mkdirs()
+        val pages = ReportPages(pagesFolder, reportFile.name, pageSize)
+
+        targetData.newToCandidate.sort()
+        targetData.removedInCandidate.sort()
+        val sortedContentChanges = targetData.contentDifferences.keys.sorted()
+        val sortedTimestampChanges = targetData.timestampDifferences.keys.sorted()
+
+        // Totals for each category, each linking to the first of its pages.
+        if (targetData.newToCandidate.size > 0) {
+            val link = pages.write("new", "New", targetData.newToCandidate.size) { row ->
+                targetData.newToCandidate.forEach { row(it.fullyQualifiedPath, NEW_FILE_ROW_ICON) }
+            }
+            report.writeToHTML(link, NEW_FILES_HEADER_ICON)
+        }
+
+        if (targetData.removedInCandidate.size > 0) {
+            val link = pages.write("missing", "Missing", targetData.removedInCandidate.size) { row ->
+                targetData.removedInCandidate.forEach { row(it.fullyQualifiedPath, MISSING_FILE_ROW_ICON) }
+            }
+            report.writeToHTML(link, MISSING_FILES_HEADER_ICON)
+        }
+
+        if (targetData.movedInCandidate.size > 0) {
+            val link = pages.write("moved", "Moved", targetData.directoryMoves.size) { row ->
+                targetData.directoryMoves.forEach { row(movedRow(it), MOVED_ROW_ICON) }
+            }
+            report.writeToHTML("$link<br><small>&nbsp;&nbsp;&nbsp;• ${targetData.movedInCandidate.size} files in all</small>", MOVED_FILES_HEADER_ICON)
+        }
+
+        if (sortedContentChanges.isNotEmpty()) {
+            val link = pages.write("content", "Content Changes", sortedContentChanges.size) { row ->
+                sortedContentChanges.forEach { row(changeRow(targetData.contentDifferences.getValue(it)), CONTENT_CHANGE_ROW_ICON) }
+            }
+            report.writeToHTML(link, CONTENT_CHANGED_HEADER_ICON)
+        }
+
+        if (sortedTimestampChanges.isNotEmpty()) {
+            val link = pages.write("timestamp", "Timestamp Changes", sortedTimestampChanges.size) { row ->
+                sortedTimestampChanges.forEach { row(changeRow(targetData.timestampDifferences.getValue(it)), TIMESTAMP_CHANGE_ROW_ICON) }
+            }
+            report.writeToHTML(link, TIMESTAMP_CHANGED_HEADER_ICON)
+        }
+
+        // Rollup by directory: the busiest directories here, all of them on pages of their own.
+        val rollup = DirectoryRollup(targetData)
+        if (rollup.size > 0) {
+            val link = pages.write("directories", "Directories with Changes", rollup.size) { row ->
+                rollup.sortedByDirectory().forEach { row(it.toString(), DIRECTORY_ROW_ICON) }
+            }
+
+            val busiestDirectories = Boolog("Busiest Directories", null, null, false)
+            rollup.busiest(BUSIEST_DIRECTORY_COUNT).forEach { busiestDirectories.info(it.toString(), DIRECTORY_ROW_ICON) }
+            report.writeToHTML(link, DIRECTORY_ROW_ICON)
+            report.showBoolog(busiestDirectories, DIRECTORY_ROW_ICON, "neutral")
+        }
+    }
+}
+
+// The top of every page of a ChangeScan report.
+internal fun reportHeader(title: String): String {
+    return "<table style=\"margin-left: 0; margin-right: 0\"><tr><td>\r\n\r\n$CHANGESCAN_LOGO_ICON\r\n\r\n</td><td><h1>$title</h1>\r\nPowered by ChangeScan</i></small></td></tr></table>\r\n<hr>\r\n\r\n"
+}
+
+private const val NEW_FILE_ROW_ICON = "\uD83C\uDD95"
+private const val MISSING_FILE_ROW_ICON = "\uD83D\uDEAB"
+private const val MOVED_ROW_ICON = "\uD83D\uDCC2"
+private const val CONTENT_CHANGE_ROW_ICON = "⚠️"
+private const val TIMESTAMP_CHANGE_ROW_ICON = "\uD83D\uDD51"
+private const val DIRECTORY_ROW_ICON = "\uD83D\uDDC2\uFE0F"
+private const val DUPLICATE_ROW_ICON = "\uD83D\uDC6F"
+private const val DUPLICATE_PATHS_LISTED = 20
+private const val PAGES_FOLDER_SUFFIX = " pages"
+private const val BUSIEST_DIRECTORY_COUNT = 25
+
+private fun movedRow(thisMove: DirectoryMove): String {
+    if (thisMove.files.size == 1) {
+        val thisFile = thisMove.files[0]
+        return "${thisFile.fullyQualifiedPath}<br><small>&nbsp;&nbsp;&nbsp;• Previous location ${thisFile.formerDirectory}</small>"
+    }
+
+    return "${thisMove.directory}<br><small>&nbsp;&nbsp;&nbsp;• ${thisMove.files.size} files; previous location ${thisMove.formerDirectory}</small>"
+}
+
+private fun duplicateRow(thisGroup: DuplicateGroup): String {
+    val result = StringBuilder()
+    result.append("${thisGroup.files.size} copies of ${"%,d".format(thisGroup.size)} bytes; ${"%,d".format(thisGroup.reclaimableBytes)} reclaimable")
+    if (!thisGroup.verified) result.append(" (same checksum, not verified)")
+    result.append("<small>")
+    thisGroup.files.take(DUPLICATE_PATHS_LISTED).forEach {
+        result.append("<br>&nbsp;&nbsp;&nbsp;• ${it[0]}")
+        if (it.size > 1) result.append(" (hard-linked as ${it.drop(1).joinToString()})")
+    }
+    if (thisGroup.files.size > DUPLICATE_PATHS_LISTED) result.append("<br>&nbsp;&nbsp;&nbsp;• and ${thisGroup.files.size - DUPLICATE_PATHS_LISTED} more")
+    result.append("</small>")
+    return result.toString()
+}
+
+private fun changeRow(thisChange: FileComparison): String {
+    val changedRanges = thisChange.changedRangesAsString
+    if (changedRanges.isEmpty()) return "${thisChange.fullyQualifiedPath}<br><small>${thisChange.allDifferencesAsString}</small>"
+    return "${thisChange.fullyQualifiedPath}<br><small>${thisChange.allDifferencesAsString}<br>&nbsp;&nbsp;&nbsp;• $changedRanges</small>"
+}
+
+// Writes one category of the report as a series of numbered pages, linked to each other and back to the main page.
+private class ReportPages(val folder: File, val mainPageName: String, val pageSize: Int) {
+    /**
+     * @param rows Called once; it should call the supplied function for every row, in order.
+     * @return A link to the first page, for the main page.
+     */
+    fun write(name: String, title: String, rowCount: Int, rows: ((String, String) -> Unit) -> Unit): String {
+        val pageCount = (rowCount + pageSize - 1) / pageSize
+        var pageNumber = 0
+        var rowsOnPage = 0
+        var page: Boolog? = null
+
+        rows { message, emoji ->
+            if (page == null) {
+                pageNumber++
+                page = startPage(name, title, pageNumber, pageCount)
+            }
+
+            page!!.info(message, emoji)
+            rowsOnPage++
+
+            if (rowsOnPage >= pageSize) {
+                finishPage(page!!, name, pageNumber, pageCount)
+                page = null
+                rowsOnPage = 0
+            }
+        }
+
+        page?.let { finishPage(it, name, pageNumber, pageCount) }
+        val pages = if (pageCount == 1) "1 page" else "$pageCount pages"
+        return "<a href=\"${href("${folder.name}/${pageFileName(name, 1)}")}\"><b>$rowCount $title</b></a> <small>($pages)</small>"
+    }
+
+    private fun startPage(name: String, title: String, pageNumber: Int, pageCount: Int): Boolog {
+        val pageTitle = "$title, page $pageNumber of $pageCount"
+        val page = Boolog(pageTitle, null, PrintWriter(File(folder, pageFileName(name, pageNumber))), false, true, THEME_CLASSIC) {
+            "<h1>$it</h1>\r\n${navigation(name, pageNumber, pageCount)}\r\n<hr>\r\n\r\n"
+        }
+
+        return page
+    }
+
+    private fun finishPage(page: Boolog, name: String, pageNumber: Int, pageCount: Int) {
+        page.writeToHTML(navigation(name, pageNumber, pageCount))
+        page.conclude()
+    }
+
+    private fun navigation(name: String, pageNumber: Int, pageCount: Int): String {
+        val result = StringBuilder("<a href=\"${href("../$mainPageName")}\">Back to the report</a>")
+        if (pageNumber > 1) result.append(" | <a href=\"${pageFileName(name, pageNumber - 1)}\">Previous page</a>")
+        if (pageNumber < pageCount) result.append(" | <a href=\"${pageFileName(name, pageNumber + 1)}\">Next page</a>")
+        return result.toString()
+    }
+
+    // Report names often have spaces in them.
+    private fun href(relativePath: String): String {
+        return URI(null, null, relativePath, null).rawPath
+    }
+
+    private fun pageFileName(name: String, pageNumber: Int): String {
+        return "$name-${"%05d".format(pageNumber)}.html"
+    }
+}
+
+// How many changes of each kind are in each directory.
+private class DirectoryRollup(targetData: FileSystemComparison) {
+    class Entry(val directory: String) {
+        var new = 0
+        var missing = 0
+        var moved = 0
+        var content = 0
+        var timestamp = 0
+
+        val total: Int
+            get() = new + missing + moved + content + timestamp
+
+        override fun toString(): String {
+            val counts = ArrayList<String>()
+            if (new > 0) counts.add("$new new")
+            if (missing > 0) counts.add("$missing missing")
+            if (moved > 0) counts.add("$moved moved in")
+            if (content > 0) counts.add("$content content changes")
+            if (timestamp > 0) counts.add("$timestamp timestamp changes")
+            return "$directory<br><small>&nbsp;&nbsp;&nbsp;• ${counts.joinToString(", ")}</small>"
+        }
+    }
+
+    private val entries = HashMap<String, Entry>()
+
+    init {
+        targetData.newToCandidate.forEach { entryFor(it.directory).new++ }
+        targetData.removedInCandidate.forEach { entryFor(it.directory).missing++ }
+        targetData.movedInCandidate.forEach { entryFor(it.directory).moved++ }
+        targetData.contentDifferences.values.forEach { entryFor(it.candidateFile.directory).content++ }
+        targetData.timestampDifferences.values.forEach { entryFor(it.candidateFile.directory).timestamp++ }
+    }
+
+    val size: Int
+        get() = entries.size
+
+    fun sortedByDirectory(): List<Entry> {
+        return entries.values.sortedBy { it.directory }
+    }
+
+    fun busiest(count: Int): List<Entry> {
+        return entries.values.sortedWith(compareByDescending<Entry> { it.total }.thenBy { it.directory }).take(count)
     }
 
-    private fun logHeader(title: String): String {
-        return "<table style=\"margin-left: 0; margin-right: 0\"><tr><td>\r\n\r\n$CHANGESCAN_LOGO_ICON\r\n\r\n</td><td><h1>$title</h1>\r\nPowered by ChangeScan</i></small></td></tr></table>\r\n<hr>\r\n\r\n"
+    private fun entryFor(directory: String): Entry {
+        return entries.getOrPut(directory) { Entry(directory) }
     }
-}
\ No newline at end of file
+}
@@ -23,43 +23,117 @@ package hoodland.opensource.changescan
 
 import hoodland.opensource.boolog.Boolog
 import hoodland.opensource.boolog.showThrowable
-import java.io.File
+import java.io.IOException
+import java.nio.file.*
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.atomic.AtomicLong
 
 internal object ScanEngine {
+    @Volatile
     private var encounteredAdminFault = false
+    private val reusedChecksums = AtomicLong()
+    private val computedChecksums = AtomicLong()
+    @Volatile
+    private var progress: ScanProgress? = null
 
-    fun run(activityLog: Boolog, errorLog: Boolog, workOrder: WorkOrder, report: ReportGenerator) {
+    /**
+     * run: Carries out the work order's scan, save, comparison and report.
+     *
+     * @return The description of the file system that was scanned, or null if there was no scan or it failed.
+     */
+    fun run(activityLog: Boolog, errorLog: Boolog, workOrder: WorkOrder, report: ReportGenerator): FileSystemDescription? {
+        var result: FileSystemDescription? = null
+        var spilledFileSystem: FileSystemDescription? = null
         try {
-            var scannedFileSystem: FileSystemDescription
+            var originalFileSystem: FileSystemDescription? = null
+            if (workOrder.incrementalRequested) {
+                // The older scan is needed before scanning so that unchanged files can skip hashing.
+                activityLog.info("Loading baseline file ${workOrder.snapshotComparisonPath} as the older scan. Unchanged files will reuse its checksums.")
+                originalFileSystem = FileSystemDescription.loadInstance(workOrder.snapshotComparisonPath)
+            }
+
+            val scannedFileSystem: BaselineSource
+            var siblingSources: Pair<BaselineSource, BaselineSource>? = null
             if (workOrder.isScanlessComparison) {
-                activityLog.info("Loading baseline file ${workOrder.snapshotSavePath} into memory and treating as the newer scan.")
-                scannedFileSystem = FileSystemDescription.loadInstance(workOrder.snapshotSavePath)
+                if (workOrder.comparisonRequested) {
+                    siblingSources = FileSystemDescription.openSiblings(workOrder.snapshotSavePath, workOrder.snapshotComparisonPath)
+                }
+
+                if (siblingSources != null) {
+                    activityLog.info("Both baseline files are deltas of the same parent. Only the files they changed will be compared.")
+                    scannedFileSystem = siblingSources.first
+                } else {
+                    activityLog.info("Streaming baseline file ${workOrder.snapshotSavePath} as the newer scan.")
+                    scannedFileSystem = FileSystemDescription.openBaseline(workOrder.snapshotSavePath)
+                }
             } else {
-                scannedFileSystem = FileSystemDescription()
-                scan(activityLog, errorLog, workOrder, workOrder.startingDirectory, scannedFileSystem)
+                val thisFileSystem = FileSystemDescription(workOrder.checksumAlgorithm, workOrder.spillAfterFiles, workOrder.spillFolder, workOrder.chunker?.settings)
+
+                // Checksums can only be reused if they were made the same way.
+                val previousFileSystem = originalFileSystem?.takeIf { it.checksumAlgorithm == thisFileSystem.checksumAlgorithm }
+                reusedChecksums.set(0)
+                computedChecksums.set(0)
+                progress = startProgress(activityLog, workOrder, originalFileSystem)
+
+                DeviceScheduler(activityLog, errorLog, workOrder, thisFileSystem, previousFileSystem).scan(workOrder.startingDirectories)
+
+                progress?.finish()
+                progress = null
+                workOrder.rateLimiter?.let {
+                    val backedOff = if (it.lowestRateFactor < 1.0) " Slow reads cut the byte budget to as little as ${"%.0f".format(it.lowestRateFactor * 100)}% of it." else ""
+                    activityLog.info("Throttling to $it made the scan wait ${"%.1f".format(it.secondsWaited)}s in all.$backedOff", "\uD83D\uDEA6")
+                }
+                if (thisFileSystem.hasSpilled) {
+                    spilledFileSystem = thisFileSystem
+                    activityLog.info("Described ${thisFileSystem.size} files, spilling all but the last few to sorted runs in ${workOrder.spillFolder}", "\uD83D\uDCE4")
+                }
+                if (workOrder.incrementalRequested) {
+                    activityLog.info("Reused ${reusedChecksums.get()} checksums from the baseline; rehashed ${computedChecksums.get()} files.", "\u267B\uFE0F")
+                }
 
                 // At this point we have completed the actual scan.  We now have to consider what to do with it.
                 if (workOrder.saveRequested) {
                     activityLog.info("Saving scan data to baseline file ${workOrder.snapshotSavePath}")
-                    scannedFileSystem.save(workOrder.snapshotSavePath)
+                    thisFileSystem.save(workOrder.snapshotSavePath, workOrder.compressBaseline, workOrder.deltaParent)
                 }
+
+                scannedFileSystem = thisFileSystem.sortedSource()
+                result = thisFileSystem
             }
 
-            if (workOrder.comparisonRequested) {
-                activityLog.info("Loading baseline file ${workOrder.snapshotComparisonPath} as the older scan.")
-                val originalFileSystem = FileSystemDescription.loadInstance(workOrder.snapshotComparisonPath)
+            scannedFileSystem.use {
+                if (workOrder.comparisonRequested) {
+                    // Unless it was already needed for an incremental scan, the older scan is streamed from disk rather than loaded.
+                    val originalSource = originalFileSystem?.sortedSource() ?: siblingSources?.second ?: run {
+                        activityLog.info("Streaming baseline file ${workOrder.snapshotComparisonPath} as the older scan.")
+                        FileSystemDescription.openBaseline(workOrder.snapshotComparisonPath)
+                    }
 
-                activityLog.info("Comparing scan data to baseline file ${workOrder.snapshotComparisonPath}")
-                val comparison = FileSystemComparison(activityLog, originalFileSystem, scannedFileSystem)
+                    originalSource.use {
+                        if (originalSource.checksumAlgorithm != scannedFileSystem.checksumAlgorithm) {
+                            // Checksums from two different algorithms never match, so every file would look changed.
+                            val msg = "Can't compare a ${scannedFileSystem.checksumAlgorithm} scan to a ${originalSource.checksumAlgorithm} baseline. Re-run with CHECKSUM ${originalSource.checksumAlgorithm.name}"
+                            errorLog.error(msg)
+                            activityLog.error(msg)
+                        } else {
+                            activityLog.info("Comparing scan data to baseline file ${workOrder.snapshotComparisonPath}")
+                            val records = if (workOrder.recordsRequested) ChangeRecordWriter(workOrder.recordsPath, workOrder.recordFormat) else null
+                            val comparison = records.use { FileSystemComparison(activityLog, originalSource, scannedFileSystem, workOrder.verbosity, it) }
+                            records?.let { activityLog.info("Wrote ${it.recordsWritten} records to ${workOrder.recordsPath}") }
 
-                if (workOrder.reportRequested) {
-                    activityLog.info("Generating report.", "\uD83D\uDCBE")
-                    report.prepare(comparison)
+                            if (workOrder.reportRequested) {
+                                activityLog.info("Generating report.", "\uD83D\uDCBE")
+                                report.prepare(comparison)
+                            }
+                        }
+                    }
                 }
             }
         } catch (thisException: Exception) {
             errorLog.showThrowable(thisException)
             activityLog.showThrowable(thisException)
+        } finally {
+            spilledFileSystem?.discardSpill()
         }
 
         if (encounteredAdminFault) {
@@ -67,82 +141,152 @@ internal object ScanEngine {
             errorLog.error(msg)
             activityLog.error(msg)
         }
+
+        return result
     }
 
-    private fun scan(activityLog: Boolog, errorLog: Boolog, workOrder: WorkOrder, rootDirectory: String, thisFileSystem: FileSystemDescription) {
+    // If there's a previous scan, its size is a good guess at how big this one will be. A saved one has its size in
+    // its header; one saved before that was recorded gives no estimate, rather than being read through for one.
+    private fun startProgress(activityLog: Boolog, workOrder: WorkOrder, originalFileSystem: FileSystemDescription?): ScanProgress {
+        var expectedFiles = 0L
+        var expectedBytes = 0L
         try {
-            if (workOrder.excludes(rootDirectory)) {
+            if (originalFileSystem != null) {
+                originalFileSystem.fileDescriptions.forEach {
+                    expectedFiles++
+                    expectedBytes += it.size
+                }
+            } else if (workOrder.comparisonRequested) {
+                FileSystemDescription.recordedTotals(workOrder.snapshotComparisonPath)?.let {
+                    expectedFiles = it.first
+                    expectedBytes = it.second
+                }
+            }
+        } catch (dontCare: Exception) {
+            // Without an estimate, progress is still reported; there's just no time remaining. Any real problem
+            // with the baseline will be reported when it's compared.
+        }
+
+        return ScanProgress(activityLog, expectedFiles, expectedBytes)
+    }
+
+    /**
+     * scanTree: Describes every file in rootDirectory and beneath it, one directory at a time, on this thread.
+     */
+    internal fun scanTree(activityLog: Boolog, errorLog: Boolog?, workOrder: WorkOrder, rootDirectory: String, thisFileSystem: FileSystemDescription, previousFileSystem: FileSystemDescription?) {
+        scanDirectory(activityLog, errorLog, workOrder, rootDirectory, thisFileSystem, previousFileSystem).forEach {
+            scanTree(activityLog, errorLog, workOrder, it, thisFileSystem, previousFileSystem)
+        }
+    }
+
+    /**
+     * scanDirectory: Describes every file directly inside rootDirectory and adds it to thisFileSystem.
+     * Subdirectories are not descended into; they are returned so the caller can decide how to walk them.
+     * This is shared by the serial walk above and the ParallelScanner, so it may be running on several
+     * threads at once. Boolog is safe to log to from all of them.
+     * If previousFileSystem is supplied, files that appear unchanged since then reuse its checksums.
+     * If errorLog is null, faults are only logged to the activity log.
+     *
+     * @return The subdirectories of rootDirectory that were not excluded.
+     */
+    internal fun scanDirectory(activityLog: Boolog, errorLog: Boolog?, workOrder: WorkOrder, rootDirectory: String, thisFileSystem: FileSystemDescription, previousFileSystem: FileSystemDescription? = null): List<String> {
+        val subdirectories = ArrayList<String>()
+
+        try {
+            if (workOrder.excludes(rootDirectory, true)) {
                 // This folder is excluded.
-                activityLog.info("Excluding this folder $rootDirectory", "⛔️")
-                return
+                logInfo(activityLog, workOrder, Verbosity.DIRECTORY, "Excluding this folder $rootDirectory", "⛔️")
+                return subdirectories
             }
 
-            if (File(rootDirectory).isDirectory) {
-                // Scan files first.
-                val files = File(rootDirectory).list() //Will need to filter out directories//Directory.GetFiles(RootDirectory);
-                if (files == null) {
-                    encounteredAdminFault = true
-                    val msg = "Denied access to folder $rootDirectory. You may need to re-run the scan with admin privileges."
-                    errorLog.error(msg)
-                    activityLog.error(msg)
-                } else {
-                    activityLog.info("Scanning $rootDirectory", "\uD83D\uDCC2")
-
-                    // First Pass: Scan the files, save directories for the next pass...
-                    files.forEach {
-                        val thisItem = "$rootDirectory${File.separator}$it"
-
-                        if (File(thisItem).isFile) {
-                            if (workOrder.excludes(thisItem)) {
-                                // This file was excluded
-                                activityLog.info("Excluding file $thisItem", "\uD83D\uDEAB")
-                            } else {
-                                activityLog.info(thisItem, "\uD83D\uDD0E")
-
-                                try {
-                                    val thisFilesDescription = FileDescription(rootDirectory, it)
-                                    thisFileSystem.add(thisFilesDescription)
-                                } catch (thisException: Throwable) {
-                                    val msg = "Unable to Scan :  $thisItem"
-                                    errorLog.error(msg)
-                                    errorLog.showThrowable(thisException)
-                                    activityLog.error(msg)
-                                    activityLog.showThrowable(thisException)
-                                }
-                            }
-                        }
+            // One listing serves both passes, and one stat of each entry tells everything about it.
+            Files.newDirectoryStream(Paths.get(rootDirectory)).use { contents ->
+                logInfo(activityLog, workOrder, Verbosity.DIRECTORY, "Scanning $rootDirectory", "\uD83D\uDCC2")
+
+                // First Pass: Scan the files, save directories for the next pass...
+                for (thisEntry in contents) {
+                    val fileName = thisEntry.fileName.toString()
+                    val thisItem = FileDescription.pathOf(rootDirectory, fileName)
+                    val attributes = try {
+                        Files.readAttributes(thisEntry, BasicFileAttributes::class.java)
+                    } catch (dontCare: NoSuchFileException) {
+                        // Deleted since the listing, or a broken link. Either way, there's nothing to describe.
+                        continue
+                    } catch (thisException: IOException) {
+                        logFault(activityLog, errorLog, "Unable to Scan :  $thisItem", thisException)
+                        continue
                     }
 
-                    // Second Pass: Scan directories next.
-                    val directories = File(rootDirectory).listFiles() //Directory.GetDirectories(RootDirectory);
-                    directories?.forEach {
-                        if (it.isDirectory) {
-                            if (! workOrder.excludes(it.toString())) {
-                                scan(activityLog, errorLog, workOrder, it.toString(), thisFileSystem)
-                            } else {
-                                // This folder is excluded.
-                                activityLog.info("Excluding folder $rootDirectory", "⛔️")
+                    if (attributes.isRegularFile) {
+                        if (workOrder.excludes(thisItem, false)) {
+                            // This file was excluded
+                            logInfo(activityLog, workOrder, Verbosity.FILE, "Excluding file $thisItem", "\uD83D\uDEAB")
+                        } else {
+                            logInfo(activityLog, workOrder, Verbosity.FILE, thisItem, "\uD83D\uDD0E")
+
+                            try {
+                                workOrder.rateLimiter?.beforeFile()
+                                val thisFilesDescription = FileDescription.scan(rootDirectory, fileName, attributes, thisFileSystem.checksumAlgorithm, previousFileSystem?.get(thisItem), workOrder.chunker, workOrder.spotCheckChunks, workOrder.rateLimiter)
+                                thisFileSystem.add(thisFilesDescription)
+                                if (thisFilesDescription.failedSpotCheck) {
+                                    logInfo(activityLog, workOrder, Verbosity.SUMMARY, "Content changed without its size or last write time changing: $thisItem", "⚠️")
+                                }
+                                progress?.fileScanned(thisFilesDescription.size, thisFilesDescription.checksumWasReused)
+
+                                if (thisFilesDescription.checksumWasReused) {
+                                    reusedChecksums.incrementAndGet()
+                                } else {
+                                    computedChecksums.incrementAndGet()
+                                }
+                            } catch (thisException: Throwable) {
+                                logFault(activityLog, errorLog, "Unable to Scan :  $thisItem", thisException)
                             }
                         }
+                    } else if (attributes.isDirectory) {
+                        subdirectories.add(thisItem)
                     }
+                }
+            }
 
-                    //log.showBoolog(subLog, "\uD83D\uDCC2")
+            // Second Pass: Hand the directories back to the caller.
+            subdirectories.removeIf {
+                if (workOrder.excludes(it, true)) {
+                    // This folder is excluded.
+                    logInfo(activityLog, workOrder, Verbosity.DIRECTORY, "Excluding folder $it", "⛔️")
+                    true
+                } else {
+                    false
                 }
-            } else {
-                // This folder did not exist.
-                val msg = "Declining non-existent folder $rootDirectory"
-                errorLog.error(msg)
-                activityLog.error(msg)
             }
+        } catch (thisException: AccessDeniedException) {
+            encounteredAdminFault = true
+            logFault(activityLog, errorLog, "Denied access to folder $rootDirectory. You may need to re-run the scan with admin privileges.")
+        } catch (thisException: NoSuchFileException) {
+            // This folder did not exist.
+            logFault(activityLog, errorLog, "Declining non-existent folder $rootDirectory")
+        } catch (thisException: NotDirectoryException) {
+            logFault(activityLog, errorLog, "Declining non-existent folder $rootDirectory")
         } catch (thisException: Throwable) {
             // Alert that this folder is being ignored.
-            val msg = "Unable to process folder $rootDirectory"
-            errorLog.error(msg)
-            errorLog.showThrowable(thisException)
-            activityLog.error(msg)
-            activityLog.showThrowable(thisException)
+            logFault(activityLog, errorLog, "Unable to process folder $rootDirectory", thisException)
+        }
+
+        return subdirectories
+    }
+
+    // Messages more detailed than the work order's verbosity are skipped before anything is formatted.
+    private fun logInfo(activityLog: Boolog, workOrder: WorkOrder, level: Verbosity, message: String, emoji: String) {
+        if (level > workOrder.verbosity) return
+        activityLog.info(message, emoji)
+    }
+
+    private fun logFault(activityLog: Boolog, errorLog: Boolog?, message: String, thisException: Throwable? = null) {
+        errorLog?.let {
+            it.error(message)
+            thisException?.let { thrown -> it.showThrowable(thrown) }
         }
 
-        return
+        activityLog.error(message)
+        thisException?.let { activityLog.showThrowable(it) }
     }
-}
\ No newline at end of file
+}
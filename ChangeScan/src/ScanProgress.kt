@@ -0,0 +1,124 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.boolog.Boolog
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * ScanProgress keeps running totals while a scan is underway and, every so often, logs a single line of
+ * aggregate throughput instead of one line per file. If the size of the previous scan is known it also
+ * estimates how much longer the scan will take. It's safe to call fileScanned() from several threads.
+ *
+ * A file whose checksum was reused from the previous scan counts toward the files and the estimate, but its bytes
+ * weren't read, so they're left out of the bytes and the throughput.
+ *
+ * @param expectedFiles How many files the scan is expected to find, or 0 if that isn't known.
+ * @param expectedBytes How many bytes the scan's files are expected to hold, or 0 if that isn't known.
+ */
+internal class ScanProgress(
+        private val activityLog: Boolog,
+        private val expectedFiles: Long = 0,
+        private val expectedBytes: Long = 0,
+        intervalMilliseconds: Long = DEFAULT_INTERVAL_MILLISECONDS) {
+    private val interval = TimeUnit.MILLISECONDS.toNanos(intervalMilliseconds)
+    private val started = System.nanoTime()
+    private val nextReport = AtomicLong(started + interval)
+    private val files = AtomicLong()
+    private val reusedFiles = AtomicLong()
+    private val bytes = AtomicLong()
+
+    // Bytes read plus the bytes of files that were reused, which is what the estimate goes by.
+    private val bytesCovered = AtomicLong()
+
+    val filesScanned: Long
+        get() = files.get()
+
+    val bytesScanned: Long
+        get() = bytes.get()
+
+    val filesReused: Long
+        get() = reusedFiles.get()
+
+    fun fileScanned(size: Long, checksumWasReused: Boolean = false) {
+        files.incrementAndGet()
+        if (checksumWasReused) reusedFiles.incrementAndGet() else bytes.addAndGet(size)
+        bytesCovered.addAndGet(size)
+
+        // Only the thread that claims this interval's report writes it.
+        val now = System.nanoTime()
+        val due = nextReport.get()
+        if ((now >= due) && nextReport.compareAndSet(due, now + interval)) {
+            activityLog.info(describe(now, true), "⏱️")
+        }
+    }
+
+    fun finish() {
+        activityLog.info(describe(System.nanoTime(), false), "⏱️")
+    }
+
+    private fun describe(now: Long, estimateRemaining: Boolean): String {
+        val seconds = maxOf(now - started, 1L) / 1_000_000_000.0
+        val fileCount = files.get()
+        val byteCount = bytes.get()
+        val reusedCount = reusedFiles.get()
+        val result = StringBuilder()
+        result.append("Scanned ${"%,d".format(fileCount)} files")
+        if (reusedCount > 0) result.append(" (${"%,d".format(reusedCount)} unchanged)")
+        result.append(", ${megabytes(byteCount)} MB read in ${duration(seconds)}")
+        result.append(" (${"%,.0f".format(fileCount / seconds)} files/s, ${megabytes(byteCount / seconds)} MB/s)")
+
+        if (estimateRemaining) {
+            // Reading the data is most of the work, so go by bytes if the expected total is known.
+            val coveredCount = bytesCovered.get()
+            val remainingSeconds = when {
+                (expectedBytes > 0) && (coveredCount > 0) -> (expectedBytes - coveredCount) / (coveredCount / seconds)
+                (expectedFiles > 0) && (fileCount > 0) -> (expectedFiles - fileCount) / (fileCount / seconds)
+                else -> null
+            }
+
+            remainingSeconds?.let {
+                result.append(if (it > 0) "; about ${duration(it)} to go" else "; nearly done")
+            }
+        }
+
+        return result.toString()
+    }
+
+    private fun megabytes(byteCount: Number): String {
+        return "%,.1f".format(byteCount.toDouble() / (1 shl 20))
+    }
+
+    private fun duration(seconds: Double): String {
+        val wholeSeconds = seconds.toLong()
+        return when {
+            wholeSeconds < 60 -> "%.1fs".format(seconds)
+            wholeSeconds < 3600 -> "${wholeSeconds / 60}m ${wholeSeconds % 60}s"
+            else -> "${wholeSeconds / 3600}h ${(wholeSeconds % 3600) / 60}m"
+        }
+    }
+
+    companion object {
+        const val DEFAULT_INTERVAL_MILLISECONDS = 5_000L
+    }
+}
@@ -44,8 +44,49 @@ RUN THIS PROGRAM WITH ADMINISTRAIVE PRIVILEDGES.
 * Instead of ROOT and SAVE, the switch USE provides a comparison
   between two already existing baselines.
 * Report is HTML format.
-* Exclude items using EXCLUDE <DIRECTORY|FILE|PATTERN> <excluded item>
-* Save the console output with LOG <output filename>""")
+* Exclude items using EXCLUDE <DIRECTORY|FILE|PATTERN|GLOB|REGEX> <excluded item>
+  (A GLOB without a folder separator is matched against file and folder names.)
+* Save the console output with LOG <output filename>
+* Scan several folders in one run by giving ROOT more than once.
+  Folders on different disks are scanned at the same time.
+* Scan with several threads at once using THREADS <number of threads>
+  (That's per disk. Spinning disks get 1 thread; change it with
+  HDDTHREADS <number of threads>.)
+* Limit the impact on a busy machine with THROTTLE <MB per second>
+  [files per second]. Add ADAPTIVE to slow down further whenever reads
+  start taking longer than usual.
+* Choose the checksum with CHECKSUM <CRC32|CRC32C|XXHASH64|SHA256>
+  (CRC32 is the default. Both baselines in a comparison must match.)
+* With COMPARE, add INCREMENTAL to skip hashing files whose size,
+  last write time and file ID are unchanged since the baseline.
+* Add COMPRESS to deflate the saved baseline file.
+* With SAVE, add DELTA <parent baseline> to save only what changed since
+  the parent. A delta can be used anywhere a baseline can. To turn one
+  back into a full baseline: COMPACT <delta> [<new baseline>] [COMPRESS]
+  A parent saved by an older version has to be CONVERTed first.
+* Add CHUNKS <FIXED|CONTENT> [KiB] to also checksum large files a chunk
+  at a time (1024 KiB by default), so the report can show which bytes
+  changed. CONTENT chunks follow the data when bytes are inserted.
+* With INCREMENTAL and CHUNKS, add SPOTCHECK [chunks] to reread a few
+  chunks (2 by default) of each file before reusing its checksum.
+* For other programs, add RECORDS <NDJSON|CSV> <filename> to write one
+  line per difference while the comparison runs.
+* For a very large number of changes, add PAGED [rows per page] to put
+  the lists of changes on separate pages (1000 rows each by default)
+  and show the main report as totals by directory.
+* For a file system too big to hold in memory, add SPILL [files] to keep
+  at most that many files in memory (250000 by default), writing the
+  rest to sorted temporary files next to the saved baseline.
+* With SAVE, add WATCH [seconds] to keep watching the folders after the
+  scan, logging changes as they happen and saving the baseline again
+  every so often (every 60 seconds by default) if anything changed.
+* Cut down the activity log with VERBOSITY <SUMMARY|DIRECTORY|FILE>
+  (FILE is the default. Progress is logged every few seconds either way.)
+* To find duplicate files in a baseline without scanning:
+  DUPLICATES <baseline> [REPORT <filename>] [VERIFY <HASH|BYTES>]
+  [MINIMUM <bytes>]. VERIFY rereads the files to be sure.
+* Baselines from older versions of ChangeScan are converted when loaded.
+  To convert one permanently: CONVERT <old baseline> <new baseline>""")
 
     System.exit(0)
 }
@@ -81,16 +122,70 @@ java -jar ChangeScan.jar ROOT <root> SAVE <filename> EXCLUDE FILE <fully qualifi
 As above, but exclude everything with a substring
 java -jar ChangeScan.jar ROOT <root> SAVE <filename> EXCLUDE PATTERN <substring>
 
+As above, but exclude every file or folder whose name matches a glob
+java -jar ChangeScan.jar ROOT <root> SAVE <filename> EXCLUDE GLOB "*.tmp"
+
+As above, but exclude everything whose full path matches a regular expression
+java -jar ChangeScan.jar ROOT <root> SAVE <filename> EXCLUDE REGEX "\.cache(/|$)"
+
 As above, but with multiple exclusions (no limit)
 java -jar ChangeScan.jar ROOT <root> SAVE <filename> EXCLUDE PATTERN <string> EXCLUDE FILE <filename> EXCLUDE DIRECTORY <name>
 
+As above, but walk the file system with 8 threads at once
+java -jar ChangeScan.jar ROOT <root> SAVE <filename> THREADS 8
+
+As above, but only log each directory rather than each file
+java -jar ChangeScan.jar ROOT <root> SAVE <filename> VERBOSITY DIRECTORY
+
+As above, but scan two disks at once, each with 4 threads unless it's a spinning disk
+java -jar ChangeScan.jar ROOT <root> ROOT <another root> SAVE <filename> THREADS 4
+
+As above, but read no more than 20 MB and 500 files per second, and less if the disk gets busy
+java -jar ChangeScan.jar ROOT <root> SAVE <filename> THROTTLE 20 500 ADAPTIVE
+
+As above, but use the xxHash64 checksum instead of CRC32
+java -jar ChangeScan.jar ROOT <root> SAVE <filename> CHECKSUM XXHASH64
+
 Scan and compare against the baseline (won't save this scan; you may add EXCLUDE as above)
 java -jar ChangeScan.jar ROOT <root folder> COMPARE <baseline filename> REPORT <report filename>
 
+Scan, then keep watching for changes, saving the baseline every 5 minutes
+java -jar ChangeScan.jar ROOT <root folder> SAVE <baseline filename> WATCH 300
+
+Scan a very large file system, keeping no more than a million files in memory at once
+java -jar ChangeScan.jar ROOT <root folder> SAVE <baseline filename> SPILL 1000000
+
+Scan and compare, showing which parts of large files changed, and save the new scan
+java -jar ChangeScan.jar ROOT <root folder> COMPARE <baseline filename> REPORT <report filename> CHUNKS CONTENT 256 SAVE <new baseline filename>
+
+Scan and compare, also writing each difference as a line of JSON for another program to read
+java -jar ChangeScan.jar ROOT <root folder> COMPARE <baseline filename> REPORT <report filename> RECORDS NDJSON <records filename>
+
+Scan and compare, listing the changes on pages of 5000 rows
+java -jar ChangeScan.jar ROOT <root folder> COMPARE <baseline filename> REPORT <report filename> PAGED 5000
+
+Scan and compare, only re-reading files that changed size or write time, and save the new scan
+java -jar ChangeScan.jar ROOT <root folder> COMPARE <baseline filename> REPORT <report filename> INCREMENTAL SAVE <new baseline filename>
+
+As above, but spot check 4 chunks of each large file before trusting that it's unchanged
+java -jar ChangeScan.jar ROOT <root folder> COMPARE <baseline filename> REPORT <report filename> INCREMENTAL CHUNKS FIXED SPOTCHECK 4 SAVE <new baseline filename>
+
+Find duplicate files of 1 MB or more in a baseline, checking each one byte for byte
+java -jar ChangeScan.jar DUPLICATES <baseline filename> REPORT <report filename> VERIFY BYTES MINIMUM 1048576
+
+Save daily history cheaply: each day's scan is saved as a delta of the first one
+java -jar ChangeScan.jar ROOT <root folder> SAVE <today's baseline filename> DELTA <first baseline filename>
+
+Turn a delta back into a full baseline, so the baselines before it can be deleted
+java -jar ChangeScan.jar COMPACT <delta>.fsc <full baseline>.fsc
+
+Convert a baseline saved by an older version of ChangeScan to the current format, compressed
+java -jar ChangeScan.jar CONVERT <old baseline>.fsc <new baseline>.fsc COMPRESS
+
 DO NOT scan, just compare two baseline files
 java -jar ChangeScan.jar USE <post change baseline>.fsc COMPARE <pre change baseline>.fsc
 
-Note that 'EXCLUDE' is the only argument that may appear multiple times.
+Note that 'EXCLUDE' and 'ROOT' are the only arguments that may appear multiple times.
 """)
     System.out.println()
     System.out.println("https://github.com/william-hood/Hoodland-Open-Source-Projects")
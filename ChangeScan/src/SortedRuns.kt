@@ -0,0 +1,154 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan
+
+import hoodland.opensource.toolbox.ChecksumAlgorithm
+import java.io.Closeable
+import java.io.File
+import java.nio.file.Files
+import java.util.*
+
+// More runs than this are merged into one before another is added, so a merge never has too many files open.
+private const val MAXIMUM_OPEN_RUNS = 64
+
+/**
+ * SortedRuns holds a scan that was too big to keep in memory, as a set of temporary files. Each one is a run of
+ * file descriptions written in sorted order, in the same format as an uncompressed baseline. The runs are merged
+ * back together as they're read, so only one entry from each of them is ever in memory.
+ *
+ * The temporary files are deleted by close().
+ */
+internal class SortedRuns(val checksumAlgorithm: ChecksumAlgorithm, private val folder: File, private val chunking: ChunkingSettings? = null) : Closeable {
+    private val runs = ArrayList<File>()
+
+    var entries = 0L
+        private set
+
+    val isEmpty: Boolean
+        get() = runs.isEmpty()
+
+    /**
+     * write: Adds a run. The descriptions must be sorted by fully qualified path. Where a path is in more than
+     * one run, the description in the latest run is the one that's supplied.
+     */
+    fun write(sortedDescriptions: Iterator<FileDescription>) {
+        if (runs.size >= MAXIMUM_OPEN_RUNS) {
+            // A merge pass. The runs so far become one, which is then the oldest.
+            val mergedRun = writeRun(merged(), false)
+            runs.forEach { it.delete() }
+            runs.clear()
+            runs.add(mergedRun)
+        }
+
+        runs.add(writeRun(sortedDescriptions, true))
+    }
+
+    /**
+     * merged: Supplies the runs merged into one sorted stream. The newest descriptions, if any, are treated as the
+     * latest run without being written out first.
+     */
+    fun merged(newest: Iterator<FileDescription>? = null): BaselineSource {
+        val sources = ArrayList<BaselineSource>()
+        try {
+            runs.forEach { sources.add(BaselineReader(it.path)) }
+        } catch (thisException: Exception) {
+            sources.forEach { it.close() }
+            throw thisException
+        }
+
+        newest?.let {
+            sources.add(object : BaselineSource, Iterator<FileDescription> by it {
+                override val checksumAlgorithm = this@SortedRuns.checksumAlgorithm
+                override val snapshotId = 0L
+                override fun close() { }
+            })
+        }
+
+        return MergedSource(checksumAlgorithm, sources)
+    }
+
+    private fun writeRun(sortedDescriptions: Iterator<FileDescription>, counted: Boolean): File {
+        val run = Files.createTempFile(folder.toPath(), "ChangeScan-", ".run").toFile()
+        run.deleteOnExit()
+        BaselineWriter(run.path, checksumAlgorithm, snapshotId = 0L, chunking = chunking).use { writer ->
+            sortedDescriptions.forEach {
+                writer.write(it)
+                if (counted) entries++
+            }
+        }
+
+        (sortedDescriptions as? Closeable)?.close()
+        return run
+    }
+
+    override fun close() {
+        runs.forEach { it.delete() }
+        runs.clear()
+        entries = 0L
+    }
+}
+
+/**
+ * MergedSource merges several sorted sources into one, in sorted order. If more than one of them has a path,
+ * the one supplied later in the list wins and the others are skipped.
+ */
+internal class MergedSource(override val checksumAlgorithm: ChecksumAlgorithm, private val sources: List<BaselineSource>) : BaselineSource {
+    override val snapshotId = 0L
+
+    private class Head(val description: FileDescription, val sourceIndex: Int) {
+        val path = description.fullyQualifiedPath
+    }
+
+    private val heads = PriorityQueue<Head>(maxOf(sources.size, 1)) { a, b ->
+        val order = a.path.compareTo(b.path)
+        if (order != 0) order else b.sourceIndex - a.sourceIndex
+    }
+
+    init {
+        sources.forEachIndexed { index, source -> advance(index, source) }
+    }
+
+    override fun hasNext(): Boolean {
+        return heads.isNotEmpty()
+    }
+
+    override fun next(): FileDescription {
+        val head = heads.poll() ?: throw NoSuchElementException()
+        advance(head.sourceIndex, sources[head.sourceIndex])
+
+        // Older descriptions of the same path.
+        while (heads.peek()?.path == head.path) {
+            val skipped = heads.poll()
+            advance(skipped.sourceIndex, sources[skipped.sourceIndex])
+        }
+
+        return head.description
+    }
+
+    private fun advance(index: Int, source: BaselineSource) {
+        source.nextOrNull()?.let { heads.add(Head(it, index)) }
+    }
+
+    override fun close() {
+        sources.forEach { it.close() }
+    }
+}
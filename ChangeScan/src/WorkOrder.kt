@@ -27,6 +27,12 @@ import java.io.File
 import java.util.*
 
 const val DEFAULT_REPORT_FILE_NAME = "ChangeScan Report.html"
+const val DEFAULT_DUPLICATES_REPORT_FILE_NAME = "ChangeScan Duplicates.html"
+const val DEFAULT_REPORT_PAGE_SIZE = 1000
+const val DEFAULT_WATCH_CHECKPOINT_SECONDS = 60L
+const val DEFAULT_CHUNK_SIZE_KIB = 1024
+const val DEFAULT_SPOT_CHECK_CHUNKS = 2
+const val DEFAULT_SPILL_FILES = 250000
 
 /**
  * WorkOrder represents the exact description of what the user has asked
@@ -34,11 +40,30 @@ const val DEFAULT_REPORT_FILE_NAME = "ChangeScan Report.html"
  */
 internal class WorkOrder {
     var isScanlessComparison = false
-    var startingDirectory = getUserHomeFolder()
+    val startingDirectories = ArrayList<String>()
     var snapshotSavePath = UNSET_STRING
     var snapshotComparisonPath = UNSET_STRING
+    var deltaParentPath = UNSET_STRING
     var reportPath = getCurrentWorkingDirectory() + File.separator + DEFAULT_REPORT_FILE_NAME
     var logPath = UNSET_STRING
+    var threads = 1
+    var spinningDiskThreads = 1
+    var checksumAlgorithm = ChecksumAlgorithm.DEFAULT
+    var incrementalRequested = false
+    var compressBaseline = false
+    var verbosity = Verbosity.FILE
+    var reportPageSize = 0
+    var recordsPath = UNSET_STRING
+    var recordFormat = RecordFormat.NDJSON
+    var watchRequested = false
+    var watchCheckpointSeconds = DEFAULT_WATCH_CHECKPOINT_SECONDS
+    var chunkingMethod: ChunkingMethod? = null
+    var chunkSizeKiB = DEFAULT_CHUNK_SIZE_KIB
+    var spotCheckChunks = 0
+    var throttleBytesPerSecond = 0L
+    var throttleFilesPerSecond = 0L
+    var adaptiveThrottle = false
+    var spillAfterFiles = 0
     val exclusions = ArrayList<FilesystemExclusion>()
 
     val saveRequested: Boolean
@@ -47,6 +72,13 @@ internal class WorkOrder {
     val comparisonRequested: Boolean
         get() = snapshotComparisonPath !== UNSET_STRING
 
+    val deltaRequested: Boolean
+        get() = deltaParentPath !== UNSET_STRING
+
+    // Null unless the baseline is to be saved as a delta.
+    val deltaParent: String?
+        get() = if (deltaRequested) deltaParentPath else null
+
     val reportRequested: Boolean
         get() {
             if (reportPath == UNSET_STRING) return false
@@ -55,18 +87,33 @@ internal class WorkOrder {
             return true
         }
 
+    val recordsRequested: Boolean
+        get() = recordsPath !== UNSET_STRING
+
+    // Spilled scan data goes next to the baseline being saved, which is somewhere known to have room for a baseline.
+    val spillFolder: File
+        get() = if (saveRequested) File(snapshotSavePath).absoluteFile.parentFile else File(System.getProperty("java.io.tmpdir"))
+
+    // Null unless THROTTLE was requested. Shared by every thread of the scan.
+    val rateLimiter: RateLimiter? by lazy {
+        if ((throttleBytesPerSecond > 0) || (throttleFilesPerSecond > 0)) RateLimiter(throttleBytesPerSecond, throttleFilesPerSecond, adaptiveThrottle) else null
+    }
+
+    // Null unless CHUNKS was requested.
+    val chunker: Chunker? by lazy { chunkingMethod?.let { Chunker(it, chunkSizeKiB * 1024, checksumAlgorithm, rateLimiter) } }
+
+    // Compiled when the scan first needs it, which is after the command line has been read.
+    private val exclusionMatcher by lazy { ExclusionMatcher(exclusions) }
+
     /**
      * excludes()
      *
      * @param candidate The file/path in-question
+     * @param isDirectory Whether the candidate is a directory. It's never looked up on disk.
      * @return True if the candidate file/path should be excluded from the scan
      */
-    fun excludes(candidate: String): Boolean {
-        for (thisExclusion in exclusions) {
-            if (thisExclusion.excludes(candidate)) return true
-        }
-
-        return false
+    fun excludes(candidate: String, isDirectory: Boolean): Boolean {
+        return exclusionMatcher.excludes(candidate, isDirectory)
     }
 
     fun describeTo(log: Boolog) {
@@ -75,7 +122,37 @@ internal class WorkOrder {
             log.info("• NEWER: $snapshotComparisonPath")
             log.info("• OLDER: $snapshotSavePath")
         } else {
-            log.info("Scanning file system from $startingDirectory", "\uD83D\uDD0D")
+            log.info("Scanning file system from ${startingDirectories.joinToString()}", "\uD83D\uDD0D")
+
+            if (threads > 1) {
+                log.info("• Scanning in parallel with up to $threads threads per device")
+            }
+
+            if (spinningDiskThreads > 1) {
+                log.info("• Spinning disks will be read with $spinningDiskThreads threads")
+            }
+
+            log.info("• Checksums will use $checksumAlgorithm")
+
+            rateLimiter?.let {
+                log.info("• Throttled to $it")
+            }
+
+            chunkingMethod?.let {
+                log.info("• Large files will also be checksummed as $it of about $chunkSizeKiB KiB")
+            }
+
+            if (incrementalRequested) {
+                log.info("• Files unchanged since $snapshotComparisonPath will reuse its checksums")
+
+                if (spotCheckChunks > 0) {
+                    log.info("• ...after rereading $spotCheckChunks of their chunks to be sure")
+                }
+            }
+
+            if (spillAfterFiles > 0) {
+                log.info("• No more than $spillAfterFiles files will be held in memory; the rest will be spilled to $spillFolder")
+            }
 
             for (thisExclusion in exclusions) {
                 log.info("• Excluding ${thisExclusion.toString()}")
@@ -83,19 +160,44 @@ internal class WorkOrder {
 
             log.info("Saving the scan results as a baseline file: $snapshotSavePath")
 
+            if (deltaRequested) {
+                log.info("• Only what changed since $deltaParentPath will be saved, as a delta of it")
+            }
+
+            if (compressBaseline) {
+                log.info("• The baseline file will be compressed")
+            }
+
             if (comparisonRequested) {
                 log.info("Comparing scan result to $snapshotComparisonPath")
             }
+
+            if (watchRequested) {
+                log.info("After scanning, watching for changes and saving the baseline every $watchCheckpointSeconds seconds if there were any")
+            }
+        }
+
+        if (verbosity != Verbosity.FILE) {
+            log.info("Activity log verbosity: $verbosity")
         }
 
         if (reportRequested) {
             log.info("Report will be generated to $reportPath", "\uD83D\uDCC4")
+
+            if (reportPageSize > 0) {
+                log.info("• Changes will be listed on separate pages of $reportPageSize")
+            }
+        }
+
+        if (recordsRequested) {
+            log.info("Each difference will be written as $recordFormat to $recordsPath", "\uD83D\uDCC4")
         }
     }
 }
 
 private fun String.removeTrailingSeparator(): String {
-    return this.trimEnd(File.separatorChar)
+    // The root of the file system keeps its separator.
+    return this.trimEnd(File.separatorChar).ifEmpty { this.take(1) }
 }
 
 internal fun interpretArgs(args: Array<String>): WorkOrder {
@@ -104,10 +206,23 @@ internal fun interpretArgs(args: Array<String>): WorkOrder {
     var sawCompare = false
     var sawReport = false
     var sawLog = false
-    var sawRoot = false
+    var sawThreads = false
+    var sawSpinningDiskThreads = false
+    var sawThrottle = false
+    var sawAdaptive = false
+    var sawChecksum = false
+    var sawIncremental = false
+    var sawCompress = false
+    var sawDelta = false
+    var sawVerbosity = false
+    var sawPaged = false
+    var sawRecords = false
+    var sawWatch = false
+    var sawChunks = false
+    var sawSpotCheck = false
+    var sawSpill = false
     val result = WorkOrder()
     result.exclusions.add(FilesystemExclusion(Categories.Pattern, "\$Recycle.Bin"))
-    if (getOperatingSystemName().contains("Win")) result.startingDirectory = "C:\\"
 
     // Parse Command Line Arguments
     var index = 0
@@ -173,14 +288,300 @@ internal fun interpretArgs(args: Array<String>): WorkOrder {
                 System.out.println("⛔ Can't accept a root directory for scanning when comparing one baseline to another.")
                 showUsage()
             } else {
-                if (sawRoot) {
-                    System.out.println("⛔ The 'ROOT' argument was seen more than once.")
+                // Each ROOT adds another folder to the scan.
+                index++
+                result.startingDirectories.add(args[index].removeTrailingSeparator())
+            }
+            "WATCH" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't watch for changes when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawWatch) {
+                    System.out.println("⛔ The 'WATCH' argument was seen more than once.")
+                    showUsage()
+                }
+
+                // The number of seconds between checkpoints is optional.
+                sawWatch = true
+                result.watchRequested = true
+                args.getOrNull(index + 1)?.toLongOrNull()?.let {
+                    index++
+                    if (it < 1) {
+                        System.out.println("⛔ WATCH may only be followed by a whole number of seconds, 1 or more")
+                        showUsage()
+                    }
+
+                    result.watchCheckpointSeconds = it
+                }
+            }
+            "RECORDS" -> {
+                if (sawRecords) {
+                    System.out.println("⛔ The 'RECORDS' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawRecords = true
+                index++
+                val requestedFormat = RecordFormat.values().firstOrNull { it.name == args[index].uppercase() }
+                if (requestedFormat == null) {
+                    System.out.println("⛔ RECORDS must be followed by NDJSON or CSV, and then a filename")
+                    showUsage()
+                } else {
+                    result.recordFormat = requestedFormat
+                    index++
+                    result.recordsPath = args[index]
+                    if (!result.recordsPath.uppercase().endsWith(requestedFormat.extension.uppercase())) result.recordsPath += requestedFormat.extension
+                }
+            }
+            "PAGED" -> {
+                if (sawPaged) {
+                    System.out.println("⛔ The 'PAGED' argument was seen more than once.")
+                    showUsage()
+                }
+
+                // The number of rows per page is optional.
+                sawPaged = true
+                result.reportPageSize = DEFAULT_REPORT_PAGE_SIZE
+                args.getOrNull(index + 1)?.toIntOrNull()?.let {
+                    index++
+                    if (it < 1) {
+                        System.out.println("⛔ PAGED may only be followed by a whole number of 1 or more")
+                        showUsage()
+                    }
+
+                    result.reportPageSize = it
+                }
+            }
+            "VERBOSITY" -> {
+                if (sawVerbosity) {
+                    System.out.println("⛔ The 'VERBOSITY' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawVerbosity = true
+                index++
+                val requestedVerbosity = Verbosity.values().firstOrNull { it.name == args[index].uppercase() }
+                if (requestedVerbosity == null) {
+                    System.out.println("⛔ VERBOSITY must be followed by SUMMARY, DIRECTORY or FILE")
+                    showUsage()
+                } else {
+                    result.verbosity = requestedVerbosity
+                }
+            }
+            "THREADS" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't accept a thread count for scanning when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawThreads) {
+                    System.out.println("⛔ The 'THREADS' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawThreads = true
+                index++
+                val requestedThreads = args[index].toIntOrNull()
+                if ((requestedThreads == null) || (requestedThreads < 1)) {
+                    System.out.println("⛔ THREADS must be followed by a whole number of 1 or more")
+                    showUsage()
+                } else {
+                    result.threads = requestedThreads
+                }
+            }
+            "THROTTLE" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't throttle a scan when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawThrottle) {
+                    System.out.println("⛔ The 'THROTTLE' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawThrottle = true
+                index++
+                val requestedMegabytes = args[index].toDoubleOrNull()
+                if ((requestedMegabytes == null) || (requestedMegabytes < 0)) {
+                    System.out.println("⛔ THROTTLE must be followed by MB per second (0 for no limit), and optionally files per second")
+                    showUsage()
+                } else {
+                    result.throttleBytesPerSecond = (requestedMegabytes * (1 shl 20)).toLong()
+                }
+
+                // The number of files per second is optional.
+                args.getOrNull(index + 1)?.toLongOrNull()?.let {
+                    index++
+                    if (it < 1) {
+                        System.out.println("⛔ THROTTLE's files per second must be a whole number of 1 or more")
+                        showUsage()
+                    }
+
+                    result.throttleFilesPerSecond = it
+                }
+
+                if ((result.throttleBytesPerSecond == 0L) && (result.throttleFilesPerSecond == 0L)) {
+                    System.out.println("⛔ THROTTLE needs a limit on MB per second, files per second, or both")
+                    showUsage()
+                }
+            }
+            "ADAPTIVE" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't throttle a scan when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawAdaptive) {
+                    System.out.println("⛔ The 'ADAPTIVE' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawAdaptive = true
+                result.adaptiveThrottle = true
+            }
+            "HDDTHREADS" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't accept a thread count for scanning when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawSpinningDiskThreads) {
+                    System.out.println("⛔ The 'HDDTHREADS' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawSpinningDiskThreads = true
+                index++
+                val requestedThreads = args[index].toIntOrNull()
+                if ((requestedThreads == null) || (requestedThreads < 1)) {
+                    System.out.println("⛔ HDDTHREADS must be followed by a whole number of 1 or more")
+                    showUsage()
+                } else {
+                    result.spinningDiskThreads = requestedThreads
+                }
+            }
+            "CHECKSUM" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't accept a checksum algorithm when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawChecksum) {
+                    System.out.println("⛔ The 'CHECKSUM' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawChecksum = true
+                index++
+                val requestedAlgorithm = ChecksumAlgorithm.fromName(args[index])
+                if (requestedAlgorithm == null) {
+                    System.out.println("⛔ CHECKSUM must be followed by CRC32, CRC32C, XXHASH64 or SHA256")
+                    showUsage()
+                } else {
+                    result.checksumAlgorithm = requestedAlgorithm
+                }
+            }
+            "INCREMENTAL" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't perform an incremental scan when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawIncremental) {
+                    System.out.println("⛔ The 'INCREMENTAL' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawIncremental = true
+                result.incrementalRequested = true
+            }
+            "CHUNKS" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't divide files into chunks when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawChunks) {
+                    System.out.println("⛔ The 'CHUNKS' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawChunks = true
+                index++
+                val requestedMethod = ChunkingMethod.values().firstOrNull { it.name == args[index].uppercase() }
+                if (requestedMethod == null) {
+                    System.out.println("⛔ CHUNKS must be followed by FIXED or CONTENT")
+                    showUsage()
+                } else {
+                    result.chunkingMethod = requestedMethod
+                }
+
+                // The chunk size is optional. Content-defined chunking needs a power of two.
+                args.getOrNull(index + 1)?.toIntOrNull()?.let {
+                    index++
+                    if ((it < 4) || (it > 65536) || ((requestedMethod == ChunkingMethod.CONTENT) && (Integer.bitCount(it) != 1))) {
+                        System.out.println("⛔ The chunk size must be a number of KiB from 4 to 65536, and a power of two for CONTENT")
+                        showUsage()
+                    }
+
+                    result.chunkSizeKiB = it
+                }
+            }
+            "SPOTCHECK" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't spot check files when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawSpotCheck) {
+                    System.out.println("⛔ The 'SPOTCHECK' argument was seen more than once.")
+                    showUsage()
+                }
+
+                // The number of chunks to reread is optional.
+                sawSpotCheck = true
+                result.spotCheckChunks = DEFAULT_SPOT_CHECK_CHUNKS
+                args.getOrNull(index + 1)?.toIntOrNull()?.let {
+                    index++
+                    if (it < 1) {
+                        System.out.println("⛔ SPOTCHECK may only be followed by a whole number of 1 or more")
+                        showUsage()
+                    }
+
+                    result.spotCheckChunks = it
+                }
+            }
+            "SPILL" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ There's no scan to spill when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawSpill) {
+                    System.out.println("⛔ The 'SPILL' argument was seen more than once.")
+                    showUsage()
+                }
+
+                // The number of files to hold in memory is optional.
+                sawSpill = true
+                result.spillAfterFiles = DEFAULT_SPILL_FILES
+                args.getOrNull(index + 1)?.toIntOrNull()?.let {
+                    index++
+                    if (it < 1000) {
+                        System.out.println("⛔ SPILL may only be followed by a whole number of files, 1000 or more")
+                        showUsage()
+                    }
+
+                    result.spillAfterFiles = it
+                }
+            }
+            "DELTA" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't save a delta when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawDelta) {
+                    System.out.println("⛔ The 'DELTA' argument was seen more than once.")
                     showUsage()
                 }
 
-                sawRoot = true
+                sawDelta = true
                 index++
-                result.startingDirectory = args[index].removeTrailingSeparator()
+                result.deltaParentPath = args[index]
+            }
+            "COMPRESS" -> if (result.isScanlessComparison) {
+                System.out.println("⛔ Can't compress a baseline when comparing one baseline to another.")
+                showUsage()
+            } else {
+                if (sawCompress) {
+                    System.out.println("⛔ The 'COMPRESS' argument was seen more than once.")
+                    showUsage()
+                }
+
+                sawCompress = true
+                result.compressBaseline = true
             }
             "EXCLUDE" -> {
                 index++
@@ -188,10 +589,12 @@ internal fun interpretArgs(args: Array<String>): WorkOrder {
                     "FILE" -> Categories.File
                     "DIRECTORY", "FOLDER" -> Categories.Directory
                     "PATTERN" -> Categories.Pattern
+                    "GLOB" -> Categories.Glob
+                    "REGEX" -> Categories.Regex
                     else -> Categories.UNSET
                 }
                 if (whichCategory == Categories.UNSET) {
-                    System.out.println("⛔ EXCLUDE must be followed by FILE, PATTERN, DIRECTORY or FOLDER")
+                    System.out.println("⛔ EXCLUDE must be followed by FILE, PATTERN, GLOB, REGEX, DIRECTORY or FOLDER")
                     showUsage()
                 }
                 index++
@@ -201,6 +604,14 @@ internal fun interpretArgs(args: Array<String>): WorkOrder {
                     markedExclude = markedExclude.removeTrailingSeparator()
                 }
 
+                // Catch a bad glob or regular expression now rather than partway through the scan.
+                try {
+                    ExclusionMatcher(listOf(FilesystemExclusion(whichCategory, markedExclude)))
+                } catch (thisException: IllegalArgumentException) {
+                    System.out.println("⛔ Not a valid ${whichCategory.name.uppercase()} exclusion: $markedExclude")
+                    showUsage()
+                }
+
                 result.exclusions.add(FilesystemExclusion(whichCategory, markedExclude))
             }
             else -> {
@@ -212,10 +623,80 @@ internal fun interpretArgs(args: Array<String>): WorkOrder {
         index++
     }
 
-    // Do not allow the end user to request a comparison without generating a report.
+    if (result.startingDirectories.isEmpty()) {
+        result.startingDirectories.add(if (getOperatingSystemName().contains("Win")) "C:\\" else getUserHomeFolder())
+    }
+
+    // Do not allow the end user to request a comparison without generating a report or records.
     if (result.comparisonRequested) {
-        if (! result.reportRequested) {
-            System.out.println("⛔ If you request any kind of comparison, you must also save a report.")
+        if ((! result.reportRequested) && (! result.recordsRequested)) {
+            System.out.println("⛔ If you request any kind of comparison, you must also save a report or records.")
+            showUsage()
+        }
+    }
+
+    // Records are written while comparing.
+    if (result.recordsRequested) {
+        if (! result.comparisonRequested) {
+            System.out.println("⛔ RECORDS lists the differences found by a comparison. Use it with COMPARE.")
+            showUsage()
+        }
+    }
+
+    // Watching keeps the baseline up to date, so there has to be one to keep.
+    if (result.watchRequested) {
+        if (! result.saveRequested) {
+            System.out.println("⛔ WATCH checkpoints the baseline as things change. Use it with SAVE.")
+            showUsage()
+        }
+    }
+
+    // An incremental scan reuses checksums from the baseline it is being compared to.
+    if (result.incrementalRequested) {
+        if (! result.comparisonRequested) {
+            System.out.println("⛔ INCREMENTAL needs a baseline to reuse checksums from. Use it with COMPARE.")
+            showUsage()
+        }
+    }
+
+    // A delta is a way of saving the baseline, and it can't replace the baseline it depends on.
+    if (result.deltaRequested) {
+        if (! result.saveRequested) {
+            System.out.println("⛔ DELTA saves the baseline as the changes since another one. Use it with SAVE.")
+            showUsage()
+        }
+
+        if (File(result.deltaParentPath.removeSuffix(".fsc")).absoluteFile == File(result.snapshotSavePath.removeSuffix(".fsc")).absoluteFile) {
+            System.out.println("⛔ A delta can't be saved over its own parent.")
+            showUsage()
+        }
+    }
+
+    // A spilled scan is never entirely in memory, and the baseline an incremental scan reuses has to be.
+    if (result.spillAfterFiles > 0) {
+        if (result.watchRequested) {
+            System.out.println("⛔ WATCH keeps the whole scan in memory, so it can't be used with SPILL.")
+            showUsage()
+        }
+
+        if (result.incrementalRequested) {
+            System.out.println("⛔ INCREMENTAL loads the whole older baseline into memory, so it can't be used with SPILL.")
+            showUsage()
+        }
+    }
+
+    // Adaptive throttling adjusts a byte budget, so there has to be one.
+    if (result.adaptiveThrottle) {
+        if (result.throttleBytesPerSecond == 0L) {
+            System.out.println("⛔ ADAPTIVE backs off from THROTTLE's MB per second. Use it with THROTTLE.")
+            showUsage()
+        }
+    }
+
+    // A spot check rereads chunks recorded by the baseline being reused.
+    if (result.spotCheckChunks > 0) {
+        if ((! result.incrementalRequested) || (result.chunkingMethod == null)) {
+            System.out.println("⛔ SPOTCHECK checks the chunks of files whose checksums are reused. Use it with INCREMENTAL and CHUNKS.")
             showUsage()
         }
     }
@@ -0,0 +1,100 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.changescan.legacy
+
+import hoodland.opensource.toolbox.ChecksumAlgorithm
+import java.io.*
+import java.time.LocalDateTime
+import java.time.ZoneId
+
+// Baselines saved before the binary baseline format were Java-serialized FileSystemDescription objects.
+// The classes below mirror the fields those objects had, so that old baselines can still be read and
+// converted. Java serialization matches classes by simple name and serialVersionUID, which is why these
+// share names with the current classes and live in their own package.
+
+internal class FileDescription(
+        val directory: String,
+        val fileName: String,
+        val checksum: Long,
+        val size: Long,
+        val creationTime: LocalDateTime,
+        val lastAccessTime: LocalDateTime,
+        val lastWriteTime: LocalDateTime,
+        val formerDirectory: String,
+        val fileKey: String?) : Serializable {
+
+    companion object {
+        private const val serialVersionUID = -5057162263664139079L
+    }
+}
+
+internal class FileSystemDescription(
+        val thisFileSystem: HashMap<String, FileDescription>,
+        val algorithm: ChecksumAlgorithm?) : Serializable {
+
+    companion object {
+        private const val serialVersionUID = -5804092088675075257L
+    }
+}
+
+private class LegacyObjectInputStream(input: InputStream) : ObjectInputStream(input) {
+    override fun resolveClass(desc: ObjectStreamClass): Class<*> {
+        return when (desc.name) {
+            "hoodland.opensource.changescan.FileSystemDescription" -> FileSystemDescription::class.java
+            "hoodland.opensource.changescan.FileDescription" -> FileDescription::class.java
+            else -> super.resolveClass(desc)
+        }
+    }
+}
+
+/**
+ * loadLegacyBaseline: Reads a Java-serialized baseline and converts it to the current FileSystemDescription.
+ * Timestamps are converted from the local date and time they were saved as back to milliseconds since the epoch.
+ */
+@Throws(IOException::class, ClassNotFoundException::class)
+internal fun loadLegacyBaseline(filePath: String): hoodland.opensource.changescan.FileSystemDescription {
+    val legacy = LegacyObjectInputStream(BufferedInputStream(FileInputStream(filePath))).use {
+        it.readObject() as FileSystemDescription
+    }
+
+    // Baselines saved before the algorithm was recorded deserialize it as null. Those were all CRC32.
+    val result = hoodland.opensource.changescan.FileSystemDescription(legacy.algorithm ?: ChecksumAlgorithm.CRC32)
+    legacy.thisFileSystem.values.forEach {
+        val converted = hoodland.opensource.changescan.FileDescription(
+                it.directory,
+                it.fileName,
+                it.checksum,
+                it.size,
+                it.creationTime.toEpochMilli(),
+                it.lastAccessTime.toEpochMilli(),
+                it.lastWriteTime.toEpochMilli(),
+                it.fileKey)
+        converted.formerDirectory = it.formerDirectory
+        result.add(converted)
+    }
+
+    return result
+}
+
+private fun LocalDateTime.toEpochMilli(): Long {
+    return this.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+}
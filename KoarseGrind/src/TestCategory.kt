@@ -118,7 +118,8 @@ internal class TestCategory(override val name: String): ArrayList<Test>(), Inqui
     internal fun run(theme: String, filters: FilterSet? = null, preclusiveFailures: ArrayList<Throwable>? = null) : Boolog {
         filterSet = filters
         var logFileName = "$name.html"
-        if (rootDirectory === UNSET_STRING) {
+        val isTopLevel = rootDirectory === UNSET_STRING
+        if (isTopLevel) {
             rootDirectory = "$DEFAULT_PARENT_FOLDER${File.separatorChar}$quickTimestamp $name"
             logFileName = "All tests.html"
         }
@@ -129,6 +130,8 @@ internal class TestCategory(override val name: String): ArrayList<Test>(), Inqui
         File(logFileFullPath).parentFile.mkdirs()
 
         val overlog = Boolog(name, stdout, PrintWriter(logFileFullPath), true, true, theme, ::logHeader)
+        // Subcategory logs are embedded in their parent's, so only the top-level log can stream.
+        if (isTopLevel) overlog.streamHTML()
         if (preclusiveFailures != null) {
             if (preclusiveFailures.size > 0) {
                 overlog.error("Failures were indicated while starting Koarse Grind! The suite will not be allowed to run.")
@@ -0,0 +1,145 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.toolbox.benchmark
+
+import hoodland.opensource.toolbox.MatrixFile
+import java.lang.management.ManagementFactory
+
+/**
+ * BenchmarkResult: The outcome of one call to benchmark().
+ *
+ * @property name The name the benchmark was given.
+ * @property iterations How many times the operation was measured. (Warm-up runs are not counted.)
+ * @property nanosecondsPerOperation Average wall-clock time per measured operation.
+ * @property bytesAllocatedPerOperation Average heap allocated per measured operation, or -1 if this JVM can't report it.
+ */
+class BenchmarkResult(
+        val name: String,
+        val iterations: Int,
+        val nanosecondsPerOperation: Double,
+        val bytesAllocatedPerOperation: Double) {
+
+    /**
+     * The number of operations that would complete per second at the measured rate.
+     */
+    val operationsPerSecond: Double
+        get() = 1_000_000_000.0 / nanosecondsPerOperation
+
+    /**
+     * throughput: Converts the measured rate into units processed per second, given how many units one operation handles.
+     * For example, pass the size of a file in megabytes to get MB/s for an operation that reads the whole file.
+     */
+    fun throughput(unitsPerOperation: Double): Double {
+        return unitsPerOperation * operationsPerSecond
+    }
+
+    override fun toString(): String {
+        return "$name: ${"%.1f".format(nanosecondsPerOperation)} ns/op, ${"%.1f".format(bytesAllocatedPerOperation)} bytes/op"
+    }
+}
+
+/**
+ * Measurement: What one timed run took.
+ *
+ * @property nanoseconds Wall-clock time for the run.
+ * @property bytesAllocated Heap the calling thread allocated during the run, or -1 if this JVM can't report it.
+ */
+class Measurement(val nanoseconds: Long, val bytesAllocated: Long)
+
+/**
+ * measure: Times one run of the operation. Heap allocation is counted for the calling thread only, so keep the
+ * operation on that thread if the bytes matter.
+ */
+fun measure(operation: () -> Unit): Measurement {
+    val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+    val allocatedBefore = threadBean?.getThreadAllocatedBytes(threadId) ?: -1L
+    val started = System.nanoTime()
+    operation()
+    val elapsed = System.nanoTime() - started
+    val allocatedAfter = threadBean?.getThreadAllocatedBytes(threadId) ?: -1L
+
+    return Measurement(elapsed, if (allocatedBefore < 0) -1L else allocatedAfter - allocatedBefore)
+}
+
+/**
+ * measuredPasses: Runs a whole pass of a benchmark one more time than asked. The first pass is a warm-up, so the
+ * JIT compiler can settle and caches can fill, and its result is thrown away.
+ *
+ * @param passes How many passes to keep.
+ * @param pass Runs one pass. It's given the pass number, which is 0 for the warm-up.
+ * @return The results of the passes after the warm-up, in order.
+ */
+fun <T> measuredPasses(passes: Int, pass: (Int) -> T): List<T> {
+    val results = ArrayList<T>()
+    for (number in 0..passes) {
+        val result = pass(number)
+        if (number > 0) results.add(result)
+    }
+
+    return results
+}
+
+/**
+ * median: The result that took the median time. Unlike the average, it isn't dragged off by one pass that a
+ * garbage collection or another process happened to slow down.
+ */
+fun <T> median(results: List<T>, nanoseconds: (T) -> Long): T {
+    return results.sortedBy(nanoseconds)[results.size / 2]
+}
+
+/**
+ * BenchmarkTable: The rows a benchmark reports. Each row is printed as it's added, and save() writes them all to
+ * a CSV file.
+ */
+class BenchmarkTable(vararg columnNames: String) {
+    private val matrix = MatrixFile<String>(*columnNames)
+
+    fun add(vararg row: String) {
+        println(row.joinToString("  "))
+        matrix.addDataRow(*row)
+    }
+
+    fun save(csvPath: String) {
+        matrix.write(csvPath, false)
+        println("Results saved to $csvPath")
+    }
+}
+
+/**
+ * benchmark: Times an operation that's quick enough to run many times over. It's run for a number of warm-up
+ * iterations so the JIT compiler can settle, then timed over the measured iterations. Heap allocation is measured
+ * for the calling thread only, so keep the operation on that thread if bytes/op matters.
+ *
+ * @param name A name for the result, typically what is being measured.
+ * @param warmupIterations Runs that are executed but not measured.
+ * @param measuredIterations Runs that are averaged into the result.
+ * @param operation The code being measured.
+ * @return The averaged measurements.
+ */
+fun benchmark(name: String, warmupIterations: Int = 5, measuredIterations: Int = 10, operation: () -> Unit): BenchmarkResult {
+    repeat(warmupIterations) { operation() }
+    val measurement = measure { repeat(measuredIterations) { operation() } }
+
+    val bytesPerOperation = if (measurement.bytesAllocated < 0) -1.0 else measurement.bytesAllocated.toDouble() / measuredIterations
+    return BenchmarkResult(name, measuredIterations, measurement.nanoseconds.toDouble() / measuredIterations, bytesPerOperation)
+}
@@ -0,0 +1,73 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.toolbox.benchmark
+
+import hoodland.opensource.toolbox.*
+import java.io.BufferedInputStream
+import java.io.File
+import java.util.*
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+
+// Compares the checksum algorithms, and the buffered checksum engine against the old byte-at-a-time CRC32.
+// Arguments (all optional): <test file size in MB> <CSV output path>
+fun main(args: Array<String>) {
+    val sizeInMegabytes = args.getOrNull(0)?.toIntOrNull() ?: 256
+    val csvPath = args.getOrNull(1) ?: "${getCurrentWorkingDirectory()}${File.separator}ChecksumBenchmark.csv"
+
+    val testFile = File.createTempFile("ChecksumBenchmark", ".bin")
+    testFile.deleteOnExit()
+    println("Writing $sizeInMegabytes MB of random data to $testFile")
+    val random = Random(42)
+    val chunk = ByteArray(1 shl 20)
+    testFile.outputStream().use { output ->
+        repeat(sizeInMegabytes) {
+            random.nextBytes(chunk)
+            output.write(chunk)
+        }
+    }
+
+    val results = ArrayList<BenchmarkResult>()
+    results.add(benchmark("CRC32 byte-at-a-time (legacy)", 1, 3) { legacyCrc32(testFile) })
+    ChecksumAlgorithm.values().forEach { algorithm ->
+        results.add(benchmark(algorithm.description) { testFile.checksumValue(algorithm) })
+    }
+
+    val table = BenchmarkTable("Benchmark", "ns/op", "MB/s", "bytes allocated/op")
+    results.forEach {
+        table.add(it.name, "%.0f".format(it.nanosecondsPerOperation), "%.1f".format(it.throughput(sizeInMegabytes.toDouble())), "%.0f".format(it.bytesAllocatedPerOperation))
+    }
+
+    table.save(csvPath)
+}
+
+// The implementation File.crc32ChecksumValue had before the checksum engine existed.
+private fun legacyCrc32(target: File): Long {
+    val midStream = CheckedInputStream(target.inputStream(), CRC32())
+    BufferedInputStream(midStream).use { readStream ->
+        while (readStream.read() != -1) {
+            // Read the file in completely
+        }
+    }
+
+    return midStream.checksum.value
+}
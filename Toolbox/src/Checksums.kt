@@ -0,0 +1,329 @@
+// Copyright (c) 2020, 2023, 2025 William Arthur Hood
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights to
+// use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+// of the Software, and to permit persons to whom the Software is furnished
+// to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included
+// in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+
+package hoodland.opensource.toolbox
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+import java.util.zip.CRC32
+import java.util.zip.CRC32C
+import java.util.zip.Checksum
+
+private const val READ_BUFFER_SIZE = 1 shl 20 // 1 MiB
+private const val MEMORY_MAP_THRESHOLD = 64L shl 20 // 64 MiB
+private const val MEMORY_MAP_WINDOW = 256L shl 20 // 256 MiB
+
+// Each thread keeps one direct buffer for its whole life rather than allocating a new one per file.
+private val readBuffer = ThreadLocal.withInitial { ByteBuffer.allocateDirect(READ_BUFFER_SIZE) }
+
+/**
+ * ChecksumAlgorithm: The algorithms that checksumValue() can use to summarize a file's content. Every algorithm
+ * produces a 64-bit (Long) value so that callers can store and compare them the same way regardless of the choice.
+ *
+ * @property description A human-readable name for the algorithm.
+ */
+enum class ChecksumAlgorithm(val description: String) {
+    /**
+     * The classic 32-bit CRC. Hardware accelerated on most JVMs.
+     */
+    CRC32("CRC32"),
+
+    /**
+     * The Castagnoli variant of CRC32. Hardware accelerated on most JVMs, and usually faster than CRC32.
+     */
+    CRC32C("CRC32C"),
+
+    /**
+     * The 64-bit xxHash, with seed 0. Far fewer collisions than either CRC for very large collections of files.
+     */
+    XXHASH64("xxHash64"),
+
+    /**
+     * SHA-256, truncated to its first 64 bits. Slowest of the choices, but resistant to deliberate tampering.
+     */
+    SHA256("SHA-256 (first 64 bits)");
+
+    /**
+     * newChecksum: Provides a fresh, reset Checksum that implements this algorithm.
+     */
+    fun newChecksum(): Checksum {
+        return when (this) {
+            CRC32 -> CRC32()
+            CRC32C -> CRC32C()
+            XXHASH64 -> XXHash64()
+            SHA256 -> MessageDigestChecksum("SHA-256")
+        }
+    }
+
+    override fun toString(): String {
+        return description
+    }
+
+    companion object {
+        val DEFAULT = CRC32
+
+        /**
+         * fromName: Finds an algorithm by either its enum name or its description, ignoring case and punctuation.
+         *
+         * @return The matching algorithm, or null if nothing matches.
+         */
+        fun fromName(name: String): ChecksumAlgorithm? {
+            val candidate = name.uppercase().filter { it.isLetterOrDigit() }
+            return values().firstOrNull { it.name.filter { it.isLetterOrDigit() } == candidate }
+        }
+    }
+}
+
+/**
+ * ReadThrottle: Paces reads from a file, for callers that mustn't read faster than some limit. beforeRead() is
+ * called before each read and may block for as long as it likes; afterRead() reports how the read went.
+ */
+interface ReadThrottle {
+    /**
+     * beforeRead: Called before reading up to the given number of bytes.
+     */
+    fun beforeRead(bytes: Int)
+
+    /**
+     * afterRead: Called after each read with the number of bytes actually read and how long the read took.
+     */
+    fun afterRead(bytes: Int, nanoseconds: Long) { }
+}
+
+/**
+ * checksumValue: Reads the file in completely and returns its checksum using the chosen algorithm. The file is read
+ * through a FileChannel into a large, reused direct buffer. Files of 64 MiB or more are memory-mapped instead, a
+ * window at a time. Either way, the checksum is updated a whole buffer at a time rather than a byte at a time.
+ *
+ * @param algorithm The checksum algorithm to use. Defaults to CRC32.
+ * @param throttle If supplied, the file is always read a buffer at a time, never mapped, and the throttle is
+ * consulted before every read.
+ * @return The checksum of the file's entire content.
+ */
+fun File.checksumValue(algorithm: ChecksumAlgorithm = ChecksumAlgorithm.DEFAULT, throttle: ReadThrottle? = null): Long {
+    val checksum = algorithm.newChecksum()
+    FileChannel.open(this.toPath(), StandardOpenOption.READ).use { channel ->
+        val size = channel.size()
+        if (throttle != null) {
+            val buffer = readBuffer.get()
+            var position = 0L
+            while (true) {
+                buffer.clear()
+                val expected = minOf(buffer.capacity().toLong(), size - position)
+                if (expected > 0) throttle.beforeRead(expected.toInt())
+                val started = System.nanoTime()
+                val count = channel.read(buffer)
+                if (count < 0) break
+                throttle.afterRead(count, System.nanoTime() - started)
+                position += count
+                buffer.flip()
+                checksum.update(buffer)
+            }
+        } else if (size >= MEMORY_MAP_THRESHOLD) {
+            var position = 0L
+            while (position < size) {
+                val length = minOf(MEMORY_MAP_WINDOW, size - position)
+                checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length))
+                position += length
+            }
+        } else {
+            val buffer = readBuffer.get()
+            buffer.clear()
+            while (channel.read(buffer) != -1) {
+                buffer.flip()
+                checksum.update(buffer)
+                buffer.clear()
+            }
+        }
+    }
+
+    return checksum.value
+}
+
+/**
+ * XXHash64: A streaming implementation of the 64-bit xxHash algorithm as a java.util.zip.Checksum.
+ * Input may arrive in pieces of any size; the result is the same as hashing it all at once.
+ *
+ * @property seed The seed value. ChecksumAlgorithm.XXHASH64 always uses 0.
+ */
+class XXHash64(private val seed: Long = 0L) : Checksum {
+    private var accumulator1 = 0L
+    private var accumulator2 = 0L
+    private var accumulator3 = 0L
+    private var accumulator4 = 0L
+    private var totalLength = 0L
+
+    // Holds input that has not yet made up a full 32-byte stripe.
+    private val pending = ByteBuffer.allocate(STRIPE_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+
+    init {
+        reset()
+    }
+
+    override fun reset() {
+        accumulator1 = seed + PRIME64_1 + PRIME64_2
+        accumulator2 = seed + PRIME64_2
+        accumulator3 = seed
+        accumulator4 = seed - PRIME64_1
+        totalLength = 0L
+        pending.clear()
+    }
+
+    override fun update(b: Int) {
+        totalLength++
+        pending.put(b.toByte())
+        if (!pending.hasRemaining()) {
+            pending.flip()
+            consumeStripe(pending)
+            pending.clear()
+        }
+    }
+
+    override fun update(b: ByteArray, off: Int, len: Int) {
+        update(ByteBuffer.wrap(b, off, len))
+    }
+
+    override fun update(buffer: ByteBuffer) {
+        val originalOrder = buffer.order()
+        buffer.order(ByteOrder.LITTLE_ENDIAN)
+        totalLength += buffer.remaining()
+
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && buffer.hasRemaining()) {
+                pending.put(buffer.get())
+            }
+
+            if (!pending.hasRemaining()) {
+                pending.flip()
+                consumeStripe(pending)
+                pending.clear()
+            }
+        }
+
+        while (buffer.remaining() >= STRIPE_LENGTH) {
+            consumeStripe(buffer)
+        }
+
+        while (buffer.hasRemaining()) {
+            pending.put(buffer.get())
+        }
+
+        buffer.order(originalOrder)
+    }
+
+    override fun getValue(): Long {
+        var hash: Long
+        if (totalLength >= STRIPE_LENGTH) {
+            hash = java.lang.Long.rotateLeft(accumulator1, 1) +
+                    java.lang.Long.rotateLeft(accumulator2, 7) +
+                    java.lang.Long.rotateLeft(accumulator3, 12) +
+                    java.lang.Long.rotateLeft(accumulator4, 18)
+            hash = mergeRound(hash, accumulator1)
+            hash = mergeRound(hash, accumulator2)
+            hash = mergeRound(hash, accumulator3)
+            hash = mergeRound(hash, accumulator4)
+        } else {
+            hash = seed + PRIME64_5
+        }
+
+        hash += totalLength
+
+        val tail = pending.duplicate()
+        tail.flip()
+        tail.order(ByteOrder.LITTLE_ENDIAN)
+
+        while (tail.remaining() >= 8) {
+            hash = hash xor round(0L, tail.getLong())
+            hash = java.lang.Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4
+        }
+
+        if (tail.remaining() >= 4) {
+            hash = hash xor ((tail.getInt().toLong() and 0xFFFFFFFFL) * PRIME64_1)
+            hash = java.lang.Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3
+        }
+
+        while (tail.hasRemaining()) {
+            hash = hash xor ((tail.get().toLong() and 0xFFL) * PRIME64_5)
+            hash = java.lang.Long.rotateLeft(hash, 11) * PRIME64_1
+        }
+
+        hash = hash xor (hash ushr 33)
+        hash *= PRIME64_2
+        hash = hash xor (hash ushr 29)
+        hash *= PRIME64_3
+        hash = hash xor (hash ushr 32)
+        return hash
+    }
+
+    private fun consumeStripe(input: ByteBuffer) {
+        accumulator1 = round(accumulator1, input.getLong())
+        accumulator2 = round(accumulator2, input.getLong())
+        accumulator3 = round(accumulator3, input.getLong())
+        accumulator4 = round(accumulator4, input.getLong())
+    }
+
+    private fun round(accumulator: Long, input: Long): Long {
+        return java.lang.Long.rotateLeft(accumulator + input * PRIME64_2, 31) * PRIME64_1
+    }
+
+    private fun mergeRound(hash: Long, accumulator: Long): Long {
+        return (hash xor round(0L, accumulator)) * PRIME64_1 + PRIME64_4
+    }
+
+    companion object {
+        private const val STRIPE_LENGTH = 32
+        private const val PRIME64_1 = -0x61c8864e7a143579L
+        private const val PRIME64_2 = -0x3d4d51c2d82b14b1L
+        private const val PRIME64_3 = 0x165667b19e3779f9L
+        private const val PRIME64_4 = -0x7a1435883d4d519dL
+        private const val PRIME64_5 = 0x27d4eb2f165667c5L
+    }
+}
+
+// Presents a MessageDigest as a Checksum. The value is the first 64 bits of the digest.
+private class MessageDigestChecksum(algorithm: String) : Checksum {
+    private val digest = MessageDigest.getInstance(algorithm)
+
+    override fun update(b: Int) {
+        digest.update(b.toByte())
+    }
+
+    override fun update(b: ByteArray, off: Int, len: Int) {
+        digest.update(b, off, len)
+    }
+
+    override fun update(buffer: ByteBuffer) {
+        digest.update(buffer)
+    }
+
+    override fun getValue(): Long {
+        // Digest a clone so that asking for the value does not reset the running digest.
+        return ByteBuffer.wrap((digest.clone() as MessageDigest).digest()).getLong()
+    }
+
+    override fun reset() {
+        digest.reset()
+    }
+}
@@ -29,8 +29,6 @@ import java.time.LocalDateTime
 import java.time.format.DateTimeFormatter
 import java.util.*
 import java.util.AbstractMap.SimpleEntry
-import java.util.zip.CRC32
-import java.util.zip.CheckedInputStream
 import kotlin.collections.ArrayList
 
 /**
@@ -178,20 +176,11 @@ val URL.queryParamsAsNameValuePairs : ArrayList<SimpleEntry<String, String>>
             return result
         }
 
+/**
+ * Provides the CRC32 checksum of the file's entire content. See checksumValue() to choose a different algorithm.
+ */
 val File.crc32ChecksumValue: Long
-    get() {
-        val midStream = CheckedInputStream(this.inputStream(), CRC32())
-        val readStream = BufferedInputStream(midStream)
-        try {
-            while (readStream.read() != -1) {
-                // Read the file in completely
-            }
-        } finally {
-            readStream.close()
-        }
-
-        return midStream.checksum.value
-    }
+    get() = checksumValue(ChecksumAlgorithm.CRC32)
 
 // TODO: Verify these comments are not needed. Does the Java wrapper need any of these?
 /*